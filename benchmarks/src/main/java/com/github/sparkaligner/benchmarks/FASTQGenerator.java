@@ -0,0 +1,74 @@
+package com.github.sparkaligner.benchmarks;
+
+import com.github.sparkaligner.FASTQRecord;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Generates Illumina-like FASTQ records from a fixed seed, so every run of a benchmark sees the same reads.
+ * About one read in a hundred holds an N, which keeps the unpackable path of the serializer covered.
+ */
+public class FASTQGenerator {
+
+    private static final byte[] BASES = {'A', 'C', 'G', 'T'};
+
+    private final Random random;
+    private final int readLength;
+    private long readNumber = 0;
+
+    public FASTQGenerator(long seed, int readLength) {
+        this.random = new Random(seed);
+        this.readLength = readLength;
+    }
+
+    // Mate 0 is a single-end read. The mates of a paired read have the same name, ending in /1 and /2.
+    public FASTQRecord next(int mate) {
+        String name = String.format("SIM:1:FCX:1:%d:%d:%d", 1101 + this.readNumber / 100000,
+                this.readNumber % 30000, this.readNumber % 40000);
+        if (mate != 0) {
+            name += "/" + mate;
+        }
+        byte[] sequence = new byte[this.readLength];
+        byte[] quality = new byte[this.readLength];
+
+        for (int i = 0; i < this.readLength; i++) {
+            sequence[i] = BASES[this.random.nextInt(BASES.length)];
+            quality[i] = (byte) ('#' + this.random.nextInt(40));
+        }
+        if (this.random.nextInt(100) == 0) {
+            sequence[this.random.nextInt(this.readLength)] = 'N';
+        }
+
+        if (mate != 1) {
+            this.readNumber++;
+        }
+        return new FASTQRecord(name.getBytes(StandardCharsets.US_ASCII), sequence, quality);
+    }
+
+    public FASTQRecord[] records(int numRecords, int mate) {
+        FASTQRecord[] records = new FASTQRecord[numRecords];
+        for (int i = 0; i < numRecords; i++) {
+            records[i] = next(mate);
+        }
+        return records;
+    }
+
+    public static File writeFile(long seed, int readLength, int numRecords) throws IOException {
+        File file = File.createTempFile("sparkaligner-bench", ".fastq");
+        file.deleteOnExit();
+
+        FASTQGenerator generator = new FASTQGenerator(seed, readLength);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 16)) {
+            for (int i = 0; i < numRecords; i++) {
+                generator.next(0).writeTo(out);
+            }
+        }
+        return file;
+    }
+}
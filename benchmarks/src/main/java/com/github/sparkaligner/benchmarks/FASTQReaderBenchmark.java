@@ -0,0 +1,86 @@
+package com.github.sparkaligner.benchmarks;
+
+import com.github.sparkaligner.FASTQRecord;
+import com.github.sparkaligner.FASTQRecordReader;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a generated FASTQ file through FASTQRecordReader, the way FASTQInputFormat reads a split, and parses
+ * every record into a FASTQRecord. This replaces the measurements of FASTQRecordGrouper and FASTQRecordCreator,
+ * which the record reader made obsolete.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FASTQReaderBenchmark {
+
+    private static final int RECORDS = 100000;
+
+    @Param({"100", "250"})
+    public int readLength;
+
+    private File fastq;
+    private Configuration conf;
+
+    @Setup
+    public void setup() throws Exception {
+        this.fastq = FASTQGenerator.writeFile(42, this.readLength, RECORDS);
+        this.conf = new Configuration();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void readRecords(Blackhole blackhole) throws Exception {
+        FASTQRecordReader reader = openReader();
+        try {
+            while (reader.nextKeyValue()) {
+                blackhole.consume(reader.getCurrentValue());
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void readAndParseRecords(Blackhole blackhole) throws Exception {
+        FASTQRecordReader reader = openReader();
+        try {
+            while (reader.nextKeyValue()) {
+                blackhole.consume(FASTQRecord.fromText(reader.getCurrentValue()));
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    private FASTQRecordReader openReader() throws Exception {
+        FASTQRecordReader reader = new FASTQRecordReader();
+        reader.initialize(new FileSplit(new Path(this.fastq.toURI()), 0, this.fastq.length(), null),
+                new TaskAttemptContextImpl(this.conf, new TaskAttemptID()));
+        return reader;
+    }
+}
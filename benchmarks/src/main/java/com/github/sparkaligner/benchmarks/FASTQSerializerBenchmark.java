@@ -0,0 +1,79 @@
+package com.github.sparkaligner.benchmarks;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.github.sparkaligner.FASTQRecord;
+import com.github.sparkaligner.FASTQRecordSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializes and deserializes FASTQRecords with FASTQRecordSerializer, as the shuffle between the load and the
+ * alignment stages does, with and without packing the bases.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FASTQSerializerBenchmark {
+
+    private static final int RECORDS = 10000;
+
+    @Param({"true", "false"})
+    public boolean packBases;
+
+    @Param({"100", "250"})
+    public int readLength;
+
+    private FASTQRecord[] records;
+    private Kryo kryo;
+    private Output output;
+    private byte[] serialized;
+
+    @Setup
+    public void setup() {
+        this.records = new FASTQGenerator(42, this.readLength).records(RECORDS, 0);
+
+        this.kryo = new Kryo();
+        this.kryo.register(FASTQRecord.class, new FASTQRecordSerializer(this.packBases));
+        this.output = new Output(RECORDS * (this.readLength * 2 + 64));
+
+        write();
+        this.serialized = this.output.toBytes();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public int write() {
+        this.output.clear();
+        for (FASTQRecord record : this.records) {
+            this.kryo.writeObject(this.output, record);
+        }
+        return this.output.position();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void read(Blackhole blackhole) {
+        Input input = new Input(this.serialized);
+        for (int i = 0; i < RECORDS; i++) {
+            blackhole.consume(this.kryo.readObject(input, FASTQRecord.class));
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.github.sparkaligner.benchmarks;
+
+import com.github.sparkaligner.BaseAligner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import scala.Tuple2;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pairs the mate files of an input folder with BaseAligner.pairFastqFiles. Half of the samples are paired
+ * and half are single-end, in a shuffled order.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PairFastqFilesBenchmark {
+
+    @Param({"10", "10000"})
+    public int numSamples;
+
+    private List<File> inputFiles;
+
+    @Setup
+    public void setup() {
+        this.inputFiles = new ArrayList<>();
+        for (int i = 0; i < this.numSamples; i++) {
+            if (i % 2 == 0) {
+                this.inputFiles.add(new File("/data/input/sample" + i + "_1.fastq"));
+                this.inputFiles.add(new File("/data/input/sample" + i + "_2.fastq"));
+            } else {
+                this.inputFiles.add(new File("/data/input/sample" + i + "_1.fq.gz"));
+            }
+        }
+        Collections.shuffle(this.inputFiles, new Random(42));
+    }
+
+    @Benchmark
+    public List<Tuple2<File, File>> pairFastqFiles() {
+        return BaseAligner.pairFastqFiles(this.inputFiles);
+    }
+}
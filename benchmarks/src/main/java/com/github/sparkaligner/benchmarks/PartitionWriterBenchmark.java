@@ -0,0 +1,95 @@
+package com.github.sparkaligner.benchmarks;
+
+import com.github.sparkaligner.FASTQRecord;
+import com.github.sparkaligner.PartitionWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import scala.Tuple2;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs PartitionWriter, the loop PairedAlignment and SingleAlignment hand the reads of a partition to the aligner
+ * with: one temporary file per mate, interleaved into the stdin of the aligner, or single-end. The output is
+ * discarded, so only the cost of formatting and buffering the records is measured. A pair counts as one record.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PartitionWriterBenchmark {
+
+    private static final int RECORDS = 10000;
+
+    @Param({"100", "250"})
+    public int readLength;
+
+    private List<Tuple2<FASTQRecord, FASTQRecord>> pairs;
+    private List<FASTQRecord> singles;
+
+    private static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+
+    @Setup
+    public void setup() {
+        FASTQGenerator generator = new FASTQGenerator(42, this.readLength);
+
+        this.pairs = new ArrayList<>();
+        this.singles = new ArrayList<>();
+        for (int i = 0; i < RECORDS; i++) {
+            FASTQRecord mate1 = generator.next(1);
+            this.pairs.add(new Tuple2<>(mate1, generator.next(2)));
+            this.singles.add(generator.next(0));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public long writeMateFiles() throws IOException {
+        try (OutputStream out1 = new BufferedOutputStream(new NullOutputStream());
+             OutputStream out2 = new BufferedOutputStream(new NullOutputStream())) {
+            return PartitionWriter.writePairs(this.pairs.iterator(), out1, out2, Long.MAX_VALUE, read -> { });
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public long writeInterleaved() throws IOException {
+        // The buffer MiscUtils puts in front of the stdin of the aligner
+        try (OutputStream out = new BufferedOutputStream(new NullOutputStream(), 1 << 16)) {
+            return PartitionWriter.writePairs(this.pairs.iterator(), out, null, Long.MAX_VALUE, read -> { });
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public long writeSingle() throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new NullOutputStream())) {
+            return PartitionWriter.writeSingle(this.singles.iterator(), out, Long.MAX_VALUE, read -> { });
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.github.sparkaligner.benchmarks;
+
+import com.github.sparkaligner.SparkAlignerKryoRegistrator;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.executor.TaskMetrics;
+import org.apache.spark.scheduler.SparkListener;
+import org.apache.spark.scheduler.SparkListenerTaskEnd;
+import org.apache.spark.serializer.KryoSerializer;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Runs BaseAligner.run end to end in local[N] mode with StubAligner, on generated input, and reports the wall
+ * time, the shuffle bytes and the peak memory of every run. Everything runs in this JVM, so it works offline
+ * on a single machine.
+ *
+ * java -cp target/benchmarks.jar com.github.sparkaligner.benchmarks.PipelineBenchmark -threads 8 -reads 2000000
+ */
+public class PipelineBenchmark {
+
+    // Sums the shuffle traffic and keeps the largest execution memory of the finished tasks
+    private static class ShuffleListener extends SparkListener {
+        final AtomicLong shuffleBytesWritten = new AtomicLong();
+        final AtomicLong shuffleBytesRead = new AtomicLong();
+        final AtomicLong peakExecutionMemory = new AtomicLong();
+
+        @Override
+        public void onTaskEnd(SparkListenerTaskEnd taskEnd) {
+            TaskMetrics metrics = taskEnd.taskMetrics();
+            if (metrics == null) {
+                return;
+            }
+
+            this.shuffleBytesWritten.addAndGet(metrics.shuffleWriteMetrics().bytesWritten());
+            this.shuffleBytesRead.addAndGet(metrics.shuffleReadMetrics().totalBytesRead());
+            this.peakExecutionMemory.accumulateAndGet(metrics.peakExecutionMemory(), Math::max);
+        }
+
+        void reset() {
+            this.shuffleBytesWritten.set(0);
+            this.shuffleBytesRead.set(0);
+            this.peakExecutionMemory.set(0);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = initOptions();
+        CommandLine cmd;
+        try {
+            cmd = new GnuParser().parse(options, args);
+        } catch (ParseException e) {
+            System.err.println(e.getMessage());
+            new HelpFormatter().printHelp("PipelineBenchmark", options);
+            System.exit(1);
+            return;
+        }
+
+        int threads = Integer.parseInt(cmd.getOptionValue("threads", "4"));
+        int numReads = Integer.parseInt(cmd.getOptionValue("reads", "1000000"));
+        int readLength = Integer.parseInt(cmd.getOptionValue("readLength", "150"));
+        int partitions = Integer.parseInt(cmd.getOptionValue("partitions", "0"));
+        int runs = Integer.parseInt(cmd.getOptionValue("runs", "3"));
+        boolean paired = !cmd.hasOption("single");
+        boolean streaming = cmd.hasOption("stream");
+
+        File workDir = cmd.hasOption("workDir")
+                ? new File(cmd.getOptionValue("workDir"))
+                : Files.createTempDirectory("sparkaligner-pipeline").toFile();
+        File inputDir = new File(workDir, "input");
+        generateInput(inputDir, numReads, readLength, paired);
+
+        SparkConf sparkConf = new SparkConf()
+                .setMaster("local[" + threads + "]")
+                .setAppName("SparkAligner-PipelineBenchmark")
+                .set("spark.serializer", KryoSerializer.class.getName())
+                .set("spark.kryo.registrator", SparkAlignerKryoRegistrator.class.getName());
+        if (cmd.hasOption("aligner")) {
+            sparkConf.set("spark.sparkaligner.binary." + StubAligner.BINARY, cmd.getOptionValue("aligner"));
+        }
+
+        JavaSparkContext ctx = new JavaSparkContext(sparkConf);
+        ShuffleListener listener = new ShuffleListener();
+        ctx.sc().addSparkListener(listener);
+
+        System.out.println(String.format("local[%d], %d %s reads of %d bases, %s, %s partitions, %s",
+                threads, numReads, paired ? "paired" : "single-end", readLength, streaming ? "streamed" : "staged",
+                partitions > 0 ? String.valueOf(partitions) : "planned", inputDir));
+
+        try {
+            for (int run = 1; run <= runs; run++) {
+                deleteOutput(inputDir);
+                listener.reset();
+                resetPeakHeap();
+
+                StubAligner aligner = new StubAligner(ctx,
+                        new StubAligner.StubOptions(inputDir.getPath(), partitions, streaming));
+
+                long start = System.nanoTime();
+                aligner.run();
+                double seconds = (System.nanoTime() - start) / 1e9;
+
+                System.out.println(String.format(Locale.ROOT,
+                        "run %d: %.2f s, %.0f reads/s, shuffle written %d bytes, shuffle read %d bytes, "
+                                + "peak heap %d MB, peak task execution memory %d MB",
+                        run, seconds, numReads / seconds, listener.shuffleBytesWritten.get(),
+                        listener.shuffleBytesRead.get(), peakHeap() >> 20, listener.peakExecutionMemory.get() >> 20));
+            }
+        } finally {
+            ctx.stop();
+            if (!cmd.hasOption("workDir")) {
+                deleteRecursively(workDir);
+            }
+        }
+    }
+
+    private static Options initOptions() {
+        Options options = new Options();
+        options.addOption(new Option("threads", true, "Number of local executor threads, local[N] (4)"));
+        options.addOption(new Option("reads", true, "Number of reads, or pairs of reads, to generate (1000000)"));
+        options.addOption(new Option("readLength", true, "Length of the generated reads (150)"));
+        options.addOption(new Option("single", false, "Generate single-end reads instead of pairs"));
+        options.addOption(new Option("partitions", true, "Number of partitions, planned from the input by default"));
+        options.addOption(new Option("stream", false, "Stream the reads to the aligner stdin"));
+        options.addOption(new Option("runs", true, "Number of runs (3)"));
+        options.addOption(new Option("aligner", true, "Binary to run instead of the bundled stub-aligner"));
+        options.addOption(new Option("workDir", true, "Folder to generate the input in, kept after the runs"));
+        return options;
+    }
+
+    private static void generateInput(File inputDir, int numReads, int readLength, boolean paired) throws IOException {
+        inputDir.mkdirs();
+        FASTQGenerator generator = new FASTQGenerator(42, readLength);
+
+        if (!paired) {
+            try (OutputStream out = open(new File(inputDir, "sample.fastq"))) {
+                for (int i = 0; i < numReads; i++) {
+                    generator.next(0).writeTo(out);
+                }
+            }
+            return;
+        }
+
+        try (OutputStream out1 = open(new File(inputDir, "sample_1.fastq"));
+             OutputStream out2 = open(new File(inputDir, "sample_2.fastq"))) {
+            for (int i = 0; i < numReads; i++) {
+                generator.next(1).writeTo(out1);
+                generator.next(2).writeTo(out2);
+            }
+        }
+    }
+
+    private static OutputStream open(File file) throws IOException {
+        return new BufferedOutputStream(new FileOutputStream(file), 1 << 16);
+    }
+
+    // Every run writes to the same output folder, as the application id does not change
+    private static void deleteOutput(File inputDir) throws IOException {
+        File[] outputDirs = inputDir.listFiles((dir, name) -> name.startsWith("sparkbwa-out-"));
+        if (outputDirs != null) {
+            for (File outputDir : outputDirs) {
+                deleteRecursively(outputDir);
+            }
+        }
+    }
+
+    private static void deleteRecursively(File dir) throws IOException {
+        try (Stream<java.nio.file.Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(java.nio.file.Path::toFile).forEach(File::delete);
+        }
+    }
+
+    // The executors run in this JVM, so its heap includes theirs
+    private static void resetPeakHeap() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    // The pools peak at different times, so their sum is an upper bound of the peak heap
+    private static long peakHeap() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}
@@ -0,0 +1,67 @@
+package com.github.sparkaligner.benchmarks;
+
+import com.github.sparkaligner.AlignerOptions;
+import com.github.sparkaligner.BaseAligner;
+import com.github.sparkaligner.FileAligner;
+import com.github.sparkaligner.ReadsWriter;
+import com.github.sparkaligner.StreamingAligner;
+import org.apache.spark.api.java.JavaSparkContext;
+
+import java.util.ArrayList;
+
+/**
+ * Runs the stub-aligner binary in place of a real aligner, so a run measures the Spark side of the pipeline.
+ * The binary is bundled as a resource, and can be replaced with spark.sparkaligner.binary.stub-aligner.
+ */
+public class StubAligner extends BaseAligner implements FileAligner, StreamingAligner {
+
+    public static final String BINARY = "stub-aligner";
+
+    public static class StubOptions extends AlignerOptions {
+
+        public StubOptions(String inputPath, int partitions, boolean streaming) {
+            setInputPath(inputPath);
+            setPartitionNumber(partitions);
+            setStreaming(streaming);
+        }
+
+        @Override
+        public ArrayList<String> generateParameters(int algorithmState, String inputFile1, String inputFile2) {
+            ArrayList<String> parameters = new ArrayList<>();
+            parameters.add(inputFile1);
+            if (inputFile2 != null) {
+                parameters.add(inputFile2);
+            }
+
+            parameters.add(">");
+            parameters.add(getOutputFile());
+            return parameters;
+        }
+    }
+
+    public StubAligner(JavaSparkContext sparkContext, StubOptions options) {
+        super(sparkContext, BINARY, options);
+    }
+
+    @Override
+    public void alignReads(String fastqFileName1, String fastqFileName2) {
+        checkReturnCode(this.execute(0, fastqFileName1, fastqFileName2));
+    }
+
+    @Override
+    public boolean supportsStreaming(boolean isPairedReads) {
+        return true;
+    }
+
+    @Override
+    public void alignReadsStreaming(boolean isPairedReads, ReadsWriter reads) {
+        checkReturnCode(this.execute(this.options.generateParameters(0, "-", null), reads));
+    }
+
+    // A failed run must fail the partition rather than commit partial output, as with the real aligners
+    private static void checkReturnCode(int returnCode) {
+        if (returnCode != 0) {
+            throw new IllegalStateException(BINARY + " exited with error code " + returnCode);
+        }
+    }
+}
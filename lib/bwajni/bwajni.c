@@ -0,0 +1,115 @@
+/*
+ * JNI bindings of com.github.sparkaligner.aligners.bwa.BwaJni, which aligns batches of reads with bwa mem
+ * inside the executor JVM. Built against libbwa.a of the bwa submodule, see ../Makefile.
+ */
+#include <jni.h>
+#include <stdlib.h>
+#include <string.h>
+
+#include "bwa.h"
+#include "bwamem.h"
+#include "kstring.h"
+
+static char *copy_string(JNIEnv *env, jstring string, int *length)
+{
+	const char *chars = (*env)->GetStringUTFChars(env, string, NULL);
+	int l = strlen(chars);
+	char *copy = malloc(l + 1);
+
+	memcpy(copy, chars, l + 1);
+	(*env)->ReleaseStringUTFChars(env, string, chars);
+	if (length) *length = l;
+	return copy;
+}
+
+/* Copies an element of a String[], without keeping a local reference to it for every read of the batch */
+static char *copy_element(JNIEnv *env, jobjectArray array, int i, int *length)
+{
+	jstring string = (jstring)(*env)->GetObjectArrayElement(env, array, i);
+	char *copy = copy_string(env, string, length);
+
+	(*env)->DeleteLocalRef(env, string);
+	return copy;
+}
+
+/* Maps the index staged in shared memory by "bwa shm", or loads it from disk. Returns 0 on failure. */
+JNIEXPORT jlong JNICALL Java_com_github_sparkaligner_aligners_bwa_BwaJni_loadIndex(JNIEnv *env, jclass cls, jstring prefix)
+{
+	char *hint = copy_string(env, prefix, NULL);
+	bwaidx_t *idx = bwa_idx_load_from_shm(hint);
+
+	if (idx == NULL) idx = bwa_idx_load(hint, BWA_IDX_ALL);
+	free(hint);
+	return (jlong)(intptr_t)idx;
+}
+
+/* Frees an index returned by loadIndex. An index mapped from shared memory stays there for other processes. */
+JNIEXPORT void JNICALL Java_com_github_sparkaligner_aligners_bwa_BwaJni_freeIndex(JNIEnv *env, jclass cls, jlong index)
+{
+	bwa_idx_destroy((bwaidx_t *)(intptr_t)index);
+}
+
+/* The @SQ lines of the reference sequences in the index, or NULL with an OutOfMemoryError pending. */
+JNIEXPORT jstring JNICALL Java_com_github_sparkaligner_aligners_bwa_BwaJni_header(JNIEnv *env, jclass cls, jlong index)
+{
+	bwaidx_t *idx = (bwaidx_t *)(intptr_t)index;
+	kstring_t str = { 0, 0, 0 };
+	jstring header;
+	int i;
+
+	for (i = 0; i < idx->bns->n_seqs; ++i)
+		ksprintf(&str, "@SQ\tSN:%s\tLN:%d\n", idx->bns->anns[i].name, idx->bns->anns[i].len);
+	header = (*env)->NewStringUTF(env, str.s ? str.s : "");
+	free(str.s);
+	return header;
+}
+
+/*
+ * Aligns the reads like "bwa mem", or "bwa mem -p" for interleaved mates when paired is set, and returns the SAM
+ * records of every read, each string holding the newline-terminated lines of one read. processed is the number of
+ * reads aligned before this batch, which bwa uses to seed the choice between equally good hits. Returns NULL with an
+ * OutOfMemoryError pending if the records do not fit in the Java heap.
+ */
+JNIEXPORT jobjectArray JNICALL Java_com_github_sparkaligner_aligners_bwa_BwaJni_align(JNIEnv *env, jclass cls,
+		jlong index, jobjectArray names, jobjectArray sequences, jobjectArray qualities, jboolean paired,
+		jint threads, jlong processed)
+{
+	bwaidx_t *idx = (bwaidx_t *)(intptr_t)index;
+	int i, n = (*env)->GetArrayLength(env, sequences);
+	bseq1_t *seqs = calloc(n, sizeof(bseq1_t));
+	mem_opt_t *opt = mem_opt_init();
+	jobjectArray records;
+
+	opt->n_threads = threads > 0 ? threads : 1;
+	if (paired) opt->flag |= MEM_F_PE;
+
+	/* bwa changes the sequences in place, so it gets copies */
+	for (i = 0; i < n; ++i) {
+		seqs[i].id = i;
+		seqs[i].name = copy_element(env, names, i, NULL);
+		seqs[i].seq = copy_element(env, sequences, i, &seqs[i].l_seq);
+		seqs[i].qual = copy_element(env, qualities, i, NULL);
+	}
+
+	mem_process_seqs(opt, idx->bwt, idx->bns, idx->pac, processed, n, seqs, NULL);
+
+	records = (*env)->NewObjectArray(env, n, (*env)->FindClass(env, "java/lang/String"), NULL);
+	for (i = 0; i < n; ++i) {
+		/* Once an allocation failed, the rest of the batch is only freed */
+		if (records != NULL) {
+			jstring record = (*env)->NewStringUTF(env, seqs[i].sam ? seqs[i].sam : "");
+			if (record == NULL) {
+				(*env)->DeleteLocalRef(env, records);
+				records = NULL;
+			} else {
+				(*env)->SetObjectArrayElement(env, records, i, record);
+				(*env)->DeleteLocalRef(env, record);
+			}
+		}
+		free(seqs[i].name); free(seqs[i].seq); free(seqs[i].qual); free(seqs[i].comment); free(seqs[i].sam);
+	}
+
+	free(seqs);
+	free(opt);
+	return records;
+}
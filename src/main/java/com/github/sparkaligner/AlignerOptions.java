@@ -9,6 +9,8 @@ import org.apache.commons.logging.LogFactory;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 public abstract class AlignerOptions implements Serializable {
 
@@ -17,11 +19,28 @@ public abstract class AlignerOptions implements Serializable {
   private String alignerExtraArgs = "";
 
   private String indexPath = "";
+  private List<String> indexPaths = new ArrayList<>();
+  private boolean passUnmapped = false;
   private String inputPath = "";
+  private String outputPath = "";
   private int partitionNumber = 0;
+  private long readsPerPartition = 1000000;
   private String outputFile = "";
-
-  protected String getIndexPath() {
+  private boolean streaming = false;
+  private boolean oneTaskPerExecutor = false;
+  private boolean bamOutput = false;
+  private boolean mergeBam = false;
+  private boolean resume = false;
+  private long chunkSize = 0;
+  private boolean collapseDuplicates = false;
+  private boolean localIndex = false;
+  private boolean watch = false;
+  private List<String> trimAdapters = new ArrayList<>();
+  private int trimQuality = 0;
+  private int trimWindow = 4;
+  private int minLength = 0;
+
+  public String getIndexPath() {
     return indexPath;
   }
 
@@ -29,6 +48,27 @@ public abstract class AlignerOptions implements Serializable {
     this.indexPath = indexPath;
   }
 
+  // Every index given with -R, which are aligned against one after the other. getIndexPath is the one the
+  // alignment is running against.
+  List<String> getIndexPaths() {
+    return this.indexPaths.isEmpty() ? Collections.singletonList(this.indexPath) : this.indexPaths;
+  }
+
+  protected void setIndexPaths(List<String> indexPaths) {
+    this.indexPaths = new ArrayList<>(indexPaths);
+    if (!indexPaths.isEmpty()) {
+      this.indexPath = indexPaths.get(0);
+    }
+  }
+
+  protected void setPassUnmapped(boolean passUnmapped) {
+    this.passUnmapped = passUnmapped;
+  }
+
+  boolean isPassUnmapped() {
+    return this.passUnmapped;
+  }
+
   String getInputPath() {
     return inputPath;
   }
@@ -37,6 +77,14 @@ public abstract class AlignerOptions implements Serializable {
     this.inputPath = inputPath;
   }
 
+  String getOutputPath() {
+    return outputPath;
+  }
+
+  protected void setOutputPath(String outputPath) {
+    this.outputPath = outputPath;
+  }
+
   int getPartitionNumber() {
     return partitionNumber;
   }
@@ -45,6 +93,14 @@ public abstract class AlignerOptions implements Serializable {
     this.partitionNumber = partitionNumber;
   }
 
+  long getReadsPerPartition() {
+    return readsPerPartition;
+  }
+
+  protected void setReadsPerPartition(long readsPerPartition) {
+    this.readsPerPartition = readsPerPartition;
+  }
+
   protected void setAlignerExtraArgs(String alignerExtraArgs) {
     this.alignerExtraArgs = alignerExtraArgs;
   }
@@ -61,6 +117,115 @@ public abstract class AlignerOptions implements Serializable {
     return this.outputFile;
   }
 
+  protected void setStreaming(boolean streaming) {
+    this.streaming = streaming;
+  }
+
+  protected boolean isStreaming() {
+    return this.streaming;
+  }
+
+  protected void setOneTaskPerExecutor(boolean oneTaskPerExecutor) {
+    this.oneTaskPerExecutor = oneTaskPerExecutor;
+  }
+
+  boolean isOneTaskPerExecutor() {
+    return this.oneTaskPerExecutor;
+  }
+
+  protected void setBamOutput(boolean bamOutput) {
+    this.bamOutput = bamOutput;
+  }
+
+  boolean isBamOutput() {
+    return this.bamOutput;
+  }
+
+  protected void setMergeBam(boolean mergeBam) {
+    this.mergeBam = mergeBam;
+  }
+
+  boolean isMergeBam() {
+    return this.mergeBam;
+  }
+
+  protected void setResume(boolean resume) {
+    this.resume = resume;
+  }
+
+  boolean isResume() {
+    return this.resume;
+  }
+
+  protected void setChunkSize(long chunkSize) {
+    this.chunkSize = chunkSize;
+  }
+
+  long getChunkSize() {
+    return this.chunkSize;
+  }
+
+  protected void setCollapseDuplicates(boolean collapseDuplicates) {
+    this.collapseDuplicates = collapseDuplicates;
+  }
+
+  boolean isCollapseDuplicates() {
+    return this.collapseDuplicates;
+  }
+
+  protected void setLocalIndex(boolean localIndex) {
+    this.localIndex = localIndex;
+  }
+
+  boolean isLocalIndex() {
+    return this.localIndex;
+  }
+
+  protected void setWatch(boolean watch) {
+    this.watch = watch;
+  }
+
+  boolean isWatch() {
+    return this.watch;
+  }
+
+  protected void setTrimAdapters(List<String> trimAdapters) {
+    this.trimAdapters = new ArrayList<>(trimAdapters);
+  }
+
+  List<String> getTrimAdapters() {
+    return this.trimAdapters;
+  }
+
+  protected void setTrimQuality(int trimQuality) {
+    this.trimQuality = trimQuality;
+  }
+
+  int getTrimQuality() {
+    return this.trimQuality;
+  }
+
+  protected void setTrimWindow(int trimWindow) {
+    this.trimWindow = trimWindow;
+  }
+
+  int getTrimWindow() {
+    return this.trimWindow;
+  }
+
+  protected void setMinLength(int minLength) {
+    this.minLength = minLength;
+  }
+
+  int getMinLength() {
+    return this.minLength;
+  }
+
+  // Whether the reads are trimmed or filtered before they are aligned
+  boolean isTrimming() {
+    return !this.trimAdapters.isEmpty() || this.trimQuality > 0 || this.minLength > 0;
+  }
+
   protected CommandLine parseArguments(Options options, String args[]) {
     CommandLineParser parser = new ExtendedGnuParser(true);
     try {
@@ -2,14 +2,29 @@ package com.github.sparkaligner;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.Path;
 import org.apache.spark.SparkContext;
+import scala.Tuple2;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 abstract class AlignmentBase implements Serializable {
 
@@ -21,6 +36,9 @@ abstract class AlignmentBase implements Serializable {
   String tmpDir = "";
   private BaseAligner aligner;
   File originInputFile;
+  private String outputDir;
+  private String indexSource;
+  private transient PartitionMetrics partitionMetrics;
 
   AlignmentBase(SparkContext context, BaseAligner aligner, File originInputFile) {
 
@@ -29,6 +47,9 @@ abstract class AlignmentBase implements Serializable {
     this.tmpDir = context.getLocalProperty("spark.local.dir");
     this.aligner = aligner;
     this.originInputFile = originInputFile;
+    this.indexSource = aligner.options.getIndexPath();
+    this.outputDir = ResultsOutput.referenceOutputDir(aligner.options, originInputFile.getAbsoluteFile().getParentFile(),
+        this.appId);
 
     if (this.tmpDir == null) {
       this.tmpDir = "/tmp/";
@@ -41,43 +62,432 @@ abstract class AlignmentBase implements Serializable {
 
   private ArrayList<String> copyResults(String outputSamFileName) {
     ArrayList< String> returnedValues = new ArrayList<String>();
-    String baseOutputDir = this.originInputFile.getParent();
-    File outputDir = new File(baseOutputDir, "sparkbwa-out-" + appId);
-
-    if (!outputDir.exists()) {
-      outputDir.mkdir();
-    }
 
     String localOutputFile = this.aligner.options.getOutputFile();
     LOG.info(localOutputFile);
 
-    LOG.info("SparkAligner:: " + this.appId + " - " + this.appName + " Copying files...");
+    LOG.info("SparkAligner:: " + this.appId + " - " + this.appName + " Moving results to " + this.outputDir);
+    long copyStart = System.nanoTime();
+    long bytesCopied = new File(localOutputFile).length();
     try {
-        File localSamOutput = new File(localOutputFile);
-        Files.copy(Paths.get(localSamOutput.getPath()), Paths.get(outputDir.getPath(), localSamOutput.getName()));
+      // The checksum is taken before the move, as the local file is gone after it
+      long checksum = this.aligner.options.isResume() ? ResumeManifest.checksum(new File(localOutputFile)) : 0;
+
+      Path outputFile = ResultsOutput.commitLocalFile(new Path(this.outputDir), new File(localOutputFile),
+          outputSamFileName);
+      if (this.aligner.options.isResume()) {
+        ResumeManifest.recordCompleted(new Path(this.outputDir), outputSamFileName, checksum, bytesCopied);
+      }
+      returnedValues.add(outputFile.toString());
+      this.partitionMetrics.addCopy(System.nanoTime() - copyStart, bytesCopied);
     } catch (IOException e) {
-      e.printStackTrace();
-      LOG.error(e.toString());
+      // Delete the old results file, and fail the task so that it is retried instead of losing the partition
+      new File(localOutputFile).delete();
+      throw new UncheckedIOException(e);
     }
 
-    // Delete the old results file
-    File tmpSamFullFile = new File(localOutputFile);
-    tmpSamFullFile.delete();
+    return returnedValues;
+  }
 
-    returnedValues.add(outputDir + "/" + outputSamFileName);
+  // Without BAM output the SAM file is copied to the output folder and its path returned. With BAM output its
+  // alignments are returned instead, to be sorted across the cluster.
+  private Iterator<String> collectResults(String outputSamFileName) {
+    if (this.aligner.options.isBamOutput()) {
+      return this.readResults();
+    }
 
-    return returnedValues;
+    return this.copyResults(outputSamFileName).iterator();
+  }
+
+  // Reads the alignments without the header lines, and deletes the SAM file once they have all been read.
+  private Iterator<String> readResults() {
+    File localSamOutput = new File(this.aligner.options.getOutputFile());
+    BufferedReader reader;
+
+    try {
+      reader = Files.newBufferedReader(localSamOutput.toPath());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    return new Iterator<String>() {
+      private String nextAlignment = readAlignment();
+
+      @Override
+      public boolean hasNext() {
+        return this.nextAlignment != null;
+      }
+
+      @Override
+      public String next() {
+        if (this.nextAlignment == null) {
+          throw new NoSuchElementException();
+        }
+
+        String alignment = this.nextAlignment;
+        this.nextAlignment = readAlignment();
+        return alignment;
+      }
+
+      private String readAlignment() {
+        try {
+          String line = reader.readLine();
+          while (line != null && line.startsWith("@")) {
+            line = reader.readLine();
+          }
+
+          if (line == null) {
+            reader.close();
+            localSamOutput.delete();
+          }
+          return line;
+
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    };
   }
 
   private String getOutputSamFilename(Integer readBatchID) {
     return this.appName + "-" + this.appId + "-" + this.originInputFile.getName() + "-" + readBatchID + ".sam";
   }
 
-  ArrayList<String> runAlignmentProcess(Integer readBatchID, String fastqFileName1, String fastqFileName2) {
+  // The name of the results in the output folder. With -resume it only depends on the input file and the
+  // partition, so every run gives a partition the same name.
+  private String getResultsFilename(Integer readBatchID) {
+    if (this.aligner.options.isResume()) {
+      return String.format("%s-part-%05d.sam", ResumeManifest.inputName(this.aligner.options, this.originInputFile),
+          readBatchID);
+    }
+    return this.getOutputSamFilename(readBatchID);
+  }
+
+  // The results of the partition if an earlier run completed it, or null if it has to be aligned. The reads of
+  // a completed partition are only read when they had to be shuffled into the partitions, which a resumed run
+  // only does for files that can not be split.
+  Iterator<String> completedResults(Integer readBatchID) {
+    if (!this.aligner.options.isResume()) {
+      return null;
+    }
+
+    String resultsFileName = this.getResultsFilename(readBatchID);
+    try {
+      if (!ResumeManifest.isCompleted(new Path(this.outputDir), resultsFileName)) {
+        return null;
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+      LOG.error(e.toString());
+      return null;
+    }
+
+    LOG.info("SparkAligner:: Partition " + readBatchID + " of " + this.originInputFile.getName()
+        + " was completed by an earlier run, skipping it");
+    return Collections.singletonList(new Path(this.outputDir, resultsFileName).toString()).iterator();
+  }
+
+  // Starts the metrics of the partition, which the aligner also adds to.
+  PartitionMetrics startPartition(Integer readBatchID, boolean isPairedReads) {
+    this.partitionMetrics = new PartitionMetrics(this.originInputFile.getName(), readBatchID,
+        this.isStreaming(isPairedReads));
+    this.aligner.setTaskMetrics(this.partitionMetrics);
+
+    // The aligner of this task runs against the reference the partition was planned for, even when the driver has
+    // moved on to the next one, or against the local copy of it
+    String indexPath = this.indexSource;
+    if (this.aligner.options.isLocalIndex()) {
+      long provisionStart = System.nanoTime();
+      try {
+        indexPath = IndexProvisioner.provision(this.indexSource);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      this.partitionMetrics.addIndexNanos(System.nanoTime() - provisionStart);
+    }
+    this.aligner.options.setIndexPath(indexPath);
+
+    return this.partitionMetrics;
+  }
+
+  private Iterator<String> finishPartition(String outputSamFileName) {
+    Iterator<String> results = this.collectResults(outputSamFileName);
+    this.aligner.addPartitionMetrics(this.partitionMetrics);
+    return results;
+  }
+
+  Iterator<String> runAlignmentProcess(Integer readBatchID, String fastqFileName1, String fastqFileName2) {
+    String outputSamFileName = this.getOutputSamFilename(readBatchID);
+    this.aligner.options.setOutputFile(this.tmpDir + outputSamFileName);
+
+    long alignStart = System.nanoTime();
+    try {
+      this.fileAligner().alignReads(fastqFileName1, fastqFileName2);
+    } catch (RuntimeException e) {
+      // The partial output of a failed aligner is never committed
+      new File(this.aligner.options.getOutputFile()).delete();
+      throw e;
+    }
+    this.partitionMetrics.addAlignNanos(System.nanoTime() - alignStart);
+
+    return this.finishPartition(this.getResultsFilename(readBatchID));
+  }
+
+  boolean isStreaming(boolean isPairedReads) {
+    return this.aligner.options.isStreaming() && this.aligner instanceof StreamingAligner
+        && ((StreamingAligner) this.aligner).supportsStreaming(isPairedReads);
+  }
+
+  boolean isInProcess() {
+    return this.aligner instanceof InProcessAligner;
+  }
+
+  // The partitions that are neither aligned in this JVM nor streamed are written to files for the aligner
+  private FileAligner fileAligner() {
+    if (!(this.aligner instanceof FileAligner)) {
+      throw new IllegalStateException(
+          this.aligner.getClass().getSimpleName() + " can not align the reads from files");
+    }
+    return (FileAligner) this.aligner;
+  }
+
+  // The mates of every pair one after the other, as alignBatch takes them.
+  static Iterator<FASTQRecord> interleave(Iterator<Tuple2<FASTQRecord, FASTQRecord>> pairs) {
+    return new Iterator<FASTQRecord>() {
+      private FASTQRecord mate2 = null;
+
+      @Override
+      public boolean hasNext() {
+        return this.mate2 != null || pairs.hasNext();
+      }
+
+      @Override
+      public FASTQRecord next() {
+        if (this.mate2 != null) {
+          FASTQRecord mate = this.mate2;
+          this.mate2 = null;
+          return mate;
+        }
+
+        Tuple2<FASTQRecord, FASTQRecord> pair = pairs.next();
+        this.mate2 = pair._2;
+        return pair._1;
+      }
+    };
+  }
+
+  // Aligns the partition with an aligner running in this JVM, a batch of reads at a time, without FASTQ files or
+  // processes. With BAM output the alignments are returned as the batches are aligned, so only one batch is held
+  // in memory. Otherwise they are written to the SAM file of the partition, which is then copied like the output
+  // of an aligner process.
+  Iterator<String> runInProcessAlignment(Integer readBatchID, boolean isPairedReads, Iterator<FASTQRecord> reads)
+      throws IOException {
+    InProcessAligner inProcessAligner = (InProcessAligner) this.aligner;
+    long batchBases = inProcessAligner.getBatchBases();
+
+    Iterator<String[]> batches = new Iterator<String[]>() {
+      @Override
+      public boolean hasNext() {
+        return reads.hasNext();
+      }
+
+      @Override
+      public String[] next() {
+        List<FASTQRecord> batch = new ArrayList<>();
+        long bases = 0;
+
+        // A batch never ends between the mates of a pair
+        while (reads.hasNext() && (bases < batchBases || (isPairedReads && batch.size() % 2 != 0))) {
+          FASTQRecord read = reads.next();
+          batch.add(read);
+          bases += read.getSequence().length;
+          partitionMetrics.countRead(read);
+        }
+
+        long alignStart = System.nanoTime();
+        String[] records = inProcessAligner.alignBatch(batch, isPairedReads);
+        partitionMetrics.addAlignNanos(System.nanoTime() - alignStart);
+        return records;
+      }
+    };
+
+    if (this.aligner.options.isBamOutput()) {
+      this.aligner.addPartitionMetrics(this.partitionMetrics);
+
+      return new Iterator<String>() {
+        private Iterator<String> lines = Collections.emptyIterator();
+
+        @Override
+        public boolean hasNext() {
+          while (!this.lines.hasNext() && batches.hasNext()) {
+            this.lines = Arrays.stream(batches.next())
+                .flatMap(record -> Arrays.stream(record.split("\n")))
+                .iterator();
+          }
+          return this.lines.hasNext();
+        }
+
+        @Override
+        public String next() {
+          if (!this.hasNext()) {
+            throw new NoSuchElementException();
+          }
+          return this.lines.next();
+        }
+      };
+    }
+
+    File localSamOutput = new File(this.tmpDir + this.getOutputSamFilename(readBatchID));
+    try (BufferedWriter writer = Files.newBufferedWriter(localSamOutput.toPath())) {
+      writer.write(inProcessAligner.getSamHeader());
+      while (batches.hasNext()) {
+        for (String record : batches.next()) {
+          writer.write(record);
+        }
+      }
+    }
+
+    this.aligner.options.setOutputFile(localSamOutput.getPath());
+    return this.finishPartition(this.getResultsFilename(readBatchID));
+  }
+
+  // A streamed partition already goes through a single aligner process without touching the disk.
+  boolean isChunked(boolean isPairedReads) {
+    return this.aligner.options.getChunkSize() > 0 && !this.isStreaming(isPairedReads);
+  }
+
+  // Writes the next reads of the partition, at most maxReads of them, and returns how many it wrote.
+  // fastqFileName2 is null for single-end reads.
+  interface ChunkWriter {
+    long write(String fastqFileName1, String fastqFileName2, long maxReads) throws IOException;
+  }
+
+  // Aligns the partition in chunks of -chunkSize reads. While a chunk is aligned the next one is written, and
+  // it is only handed to the aligner once the previous chunk is done, so at most two chunks are on the local
+  // disk at a time, however large the partition. The SAM output of every chunk is appended to that of the
+  // partition, without its header after the first chunk.
+  Iterator<String> runChunkedAlignmentProcess(Integer readBatchID, boolean isPairedReads, ChunkWriter chunks)
+      throws IOException {
+    String outputSamFileName = this.getOutputSamFilename(readBatchID);
+    File localSamOutput = new File(this.tmpDir + outputSamFileName);
+    Files.deleteIfExists(localSamOutput.toPath());
+
+    String chunkFilePrefix = this.tmpDir + MiscUtils.removeExtenstion(this.originInputFile.getName()) + "-"
+        + this.appId + "-RDD" + readBatchID + "-";
+    long chunkSize = this.aligner.options.getChunkSize();
+
+    ExecutorService alignerThread = Executors.newSingleThreadExecutor();
+    Future<?> previousChunk = null;
+    long writeStart = System.nanoTime();
+    long waitNanos = 0;
+    int chunk = 0;
+
+    try {
+      for (; ; chunk++) {
+        String fastqFileName1 = chunkFilePrefix + chunk + "_1";
+        String fastqFileName2 = isPairedReads ? chunkFilePrefix + chunk + "_2" : null;
+
+        long chunkReads = chunks.write(fastqFileName1, fastqFileName2, chunkSize);
+        if (chunkReads == 0 && chunk > 0) {
+          deleteChunk(fastqFileName1, fastqFileName2);
+          break;
+        }
+
+        if (previousChunk != null) {
+          long waitStart = System.nanoTime();
+          waitFor(previousChunk);
+          waitNanos += System.nanoTime() - waitStart;
+        }
+
+        LOG.info("SparkAligner:: Aligning chunk " + chunk + " of partition " + readBatchID + ", " + chunkReads
+            + " reads");
+        String chunkSamFileName = this.tmpDir + outputSamFileName + "-" + chunk;
+        boolean keepHeader = chunk == 0;
+        // A chunk the aligner fails on throws before its output is appended, and fails the partition
+        previousChunk = alignerThread.submit(() -> {
+          this.aligner.options.setOutputFile(chunkSamFileName);
+
+          long alignStart = System.nanoTime();
+          this.fileAligner().alignReads(fastqFileName1, fastqFileName2);
+          this.partitionMetrics.addAlignNanos(System.nanoTime() - alignStart);
+
+          deleteChunk(fastqFileName1, fastqFileName2);
+          appendSam(new File(chunkSamFileName), localSamOutput, keepHeader);
+          return null;
+        });
+      }
+
+      // Writing ends with the last chunk, the time spent waiting for the aligner is not part of it
+      this.partitionMetrics.finishWrite(writeStart + waitNanos);
+      waitFor(previousChunk);
+
+    } catch (IOException | RuntimeException e) {
+      alignerThread.shutdownNow();
+      // The chunk being written and the one being aligned when the partition failed
+      for (int failedChunk = Math.max(0, chunk - 1); failedChunk <= chunk; failedChunk++) {
+        deleteChunk(chunkFilePrefix + failedChunk + "_1", isPairedReads ? chunkFilePrefix + failedChunk + "_2" : null);
+        new File(this.tmpDir + outputSamFileName + "-" + failedChunk).delete();
+      }
+      Files.deleteIfExists(localSamOutput.toPath());
+      throw e;
+    } finally {
+      alignerThread.shutdownNow();
+    }
+
+    this.aligner.options.setOutputFile(localSamOutput.getPath());
+    return this.finishPartition(this.getResultsFilename(readBatchID));
+  }
+
+  private static void waitFor(Future<?> chunk) throws IOException {
+    try {
+      chunk.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(e.toString());
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException(e.getCause());
+    }
+  }
+
+  private static void deleteChunk(String fastqFileName1, String fastqFileName2) {
+    new File(fastqFileName1).delete();
+    if (fastqFileName2 != null) {
+      new File(fastqFileName2).delete();
+    }
+  }
+
+  private static void appendSam(File chunkSam, File samOutput, boolean keepHeader) throws IOException {
+    try (BufferedReader reader = Files.newBufferedReader(chunkSam.toPath());
+         BufferedWriter writer = Files.newBufferedWriter(samOutput.toPath(), StandardOpenOption.CREATE,
+             StandardOpenOption.APPEND)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (keepHeader || !line.startsWith("@")) {
+          writer.write(line);
+          writer.newLine();
+        }
+      }
+    } finally {
+      chunkSam.delete();
+    }
+  }
+
+  Iterator<String> runStreamingAlignmentProcess(Integer readBatchID, boolean isPairedReads, ReadsWriter reads) {
     String outputSamFileName = this.getOutputSamFilename(readBatchID);
     this.aligner.options.setOutputFile(this.tmpDir + outputSamFileName);
-    this.aligner.alignReads(fastqFileName1, fastqFileName2);
+    // Includes writing the reads, which the aligner reads while it aligns
+    long alignStart = System.nanoTime();
+    try {
+      ((StreamingAligner) this.aligner).alignReadsStreaming(isPairedReads, reads);
+    } catch (RuntimeException e) {
+      new File(this.aligner.options.getOutputFile()).delete();
+      throw e;
+    }
+    this.partitionMetrics.addAlignNanos(System.nanoTime() - alignStart);
 
-    return this.copyResults(outputSamFileName);
+    return this.finishPartition(this.getResultsFilename(readBatchID));
   }
 }
@@ -0,0 +1,94 @@
+package com.github.sparkaligner;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.spark.scheduler.AccumulableInfo;
+import org.apache.spark.scheduler.SparkListener;
+import org.apache.spark.scheduler.SparkListenerExecutorMetricsUpdate;
+import org.apache.spark.scheduler.SparkListenerTaskEnd;
+import org.apache.spark.scheduler.SparkListenerTaskStart;
+import scala.Tuple4;
+import scala.collection.JavaConverters;
+import scala.collection.Seq;
+
+import java.util.HashMap;
+
+/**
+ * Watches the processed reads of the running alignment tasks on the driver. The executors send the value of
+ * the accumulator of every running task with their heartbeats, and a task whose count has not grown for the
+ * stall timeout is reported, once, as stalled. Only the tasks that reported reads at least once are watched, as
+ * the other stages, and aligners other than bwa mem, never report any.
+ */
+class AlignmentProgressListener extends SparkListener {
+
+    private static final Log LOG = LogFactory.getLog(AlignmentProgressListener.class);
+
+    private static class TaskProgress {
+        long processedReads = 0;
+        long lastProgressTime;
+        boolean reportedStalled = false;
+
+        TaskProgress(long startTime) {
+            this.lastProgressTime = startTime;
+        }
+    }
+
+    private final long accumulatorId;
+    private final long stallTimeoutMs;
+
+    // Only used from the listener bus thread
+    private final HashMap<Long, TaskProgress> runningTasks = new HashMap<>();
+
+    AlignmentProgressListener(long accumulatorId, long stallTimeoutMs) {
+        this.accumulatorId = accumulatorId;
+        this.stallTimeoutMs = stallTimeoutMs;
+    }
+
+    @Override
+    public void onTaskStart(SparkListenerTaskStart taskStart) {
+        this.runningTasks.put(taskStart.taskInfo().taskId(), new TaskProgress(taskStart.taskInfo().launchTime()));
+    }
+
+    @Override
+    public void onTaskEnd(SparkListenerTaskEnd taskEnd) {
+        this.runningTasks.remove(taskEnd.taskInfo().taskId());
+    }
+
+    @Override
+    public void onExecutorMetricsUpdate(SparkListenerExecutorMetricsUpdate update) {
+        long now = System.currentTimeMillis();
+
+        for (Tuple4<Object, Object, Object, Seq<AccumulableInfo>> taskUpdate
+                : JavaConverters.seqAsJavaListConverter(update.accumUpdates()).asJava()) {
+            long taskId = (Long) taskUpdate._1();
+            TaskProgress progress = this.runningTasks.get(taskId);
+            if (progress == null) {
+                continue;
+            }
+
+            for (AccumulableInfo info : JavaConverters.seqAsJavaListConverter(taskUpdate._4()).asJava()) {
+                if (info.id() == this.accumulatorId && info.update().isDefined()) {
+                    long processedReads = (Long) info.update().get();
+
+                    if (processedReads > progress.processedReads) {
+                        progress.processedReads = processedReads;
+                        progress.lastProgressTime = now;
+                        progress.reportedStalled = false;
+
+                        LOG.debug("SparkAligner:: Task " + taskId + " on executor " + update.execId()
+                                + " processed " + processedReads + " reads");
+                    }
+                }
+            }
+
+            if (progress.processedReads > 0 && !progress.reportedStalled
+                    && now - progress.lastProgressTime > this.stallTimeoutMs) {
+                progress.reportedStalled = true;
+
+                LOG.warn(String.format("SparkAligner:: Task %d on executor %s has not processed any reads for %d s, "
+                                + "%d reads so far", taskId, update.execId(), (now - progress.lastProgressTime) / 1000,
+                        progress.processedReads));
+            }
+        }
+    }
+}
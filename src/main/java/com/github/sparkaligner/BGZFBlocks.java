@@ -0,0 +1,84 @@
+package com.github.sparkaligner;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Finds the blocks of BGZF files, the blocked gzip format written by bgzip. Each block is a gzip member of at
+ * most 64 KB carrying its own size, so a file can be decompressed starting at any block.
+ */
+class BGZFBlocks {
+
+    private static final int HEADER_LENGTH = 18;
+    private static final int MAX_BLOCK_SIZE = 1 << 16;
+
+    static boolean isBGZF(FileSystem fs, Path file) throws IOException {
+        if (fs.getFileStatus(file).getLen() < HEADER_LENGTH) {
+            return false;
+        }
+
+        byte[] header = new byte[HEADER_LENGTH];
+        try (FSDataInputStream in = fs.open(file)) {
+            in.readFully(0, header);
+        }
+        return isBlockHeader(header, 0);
+    }
+
+    // gzip magic with the FEXTRA flag, followed by the 6 byte "BC" extra field holding the block size.
+    private static boolean isBlockHeader(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xff) == 0x1f
+                && (buffer[offset + 1] & 0xff) == 0x8b
+                && buffer[offset + 2] == 8
+                && (buffer[offset + 3] & 4) != 0
+                && buffer[offset + 10] == 6 && buffer[offset + 11] == 0
+                && buffer[offset + 12] == 'B' && buffer[offset + 13] == 'C'
+                && buffer[offset + 14] == 2 && buffer[offset + 15] == 0;
+    }
+
+    private static int blockSize(byte[] buffer, int offset) {
+        return ((buffer[offset + 16] & 0xff) | ((buffer[offset + 17] & 0xff) << 8)) + 1;
+    }
+
+    // Address of the first block starting at or after the given position, or the file length if there is none.
+    // A candidate header only counts if another block, or the end of the file, follows right after it.
+    static long nextBlockStart(FSDataInputStream in, long position, long fileLength) throws IOException {
+        if (position <= 0) {
+            return 0;
+        }
+
+        int bufferLength = (int) Math.min(2 * MAX_BLOCK_SIZE + HEADER_LENGTH, fileLength - position);
+        if (bufferLength < HEADER_LENGTH) {
+            return fileLength;
+        }
+
+        byte[] buffer = new byte[bufferLength];
+        in.readFully(position, buffer);
+
+        byte[] nextHeader = new byte[HEADER_LENGTH];
+        for (int i = 0; i <= Math.min(MAX_BLOCK_SIZE, bufferLength - HEADER_LENGTH); i++) {
+            if (!isBlockHeader(buffer, i)) {
+                continue;
+            }
+
+            long nextBlock = position + i + blockSize(buffer, i);
+            if (nextBlock == fileLength) {
+                return position + i;
+            }
+
+            try {
+                in.readFully(nextBlock, nextHeader);
+                if (isBlockHeader(nextHeader, 0)) {
+                    return position + i;
+                }
+            } catch (EOFException e) {
+                // Not a real block, its size points past the end of the file
+            }
+        }
+
+        return fileLength;
+    }
+}
@@ -0,0 +1,210 @@
+package com.github.sparkaligner;
+
+import htsjdk.samtools.BAMFileWriter;
+import htsjdk.samtools.BAMIndexer;
+import htsjdk.samtools.BAMRecordCodec;
+import htsjdk.samtools.DefaultSAMRecordFactory;
+import htsjdk.samtools.SAMFileHeader;
+import htsjdk.samtools.SAMLineParser;
+import htsjdk.samtools.SAMRecord;
+import htsjdk.samtools.SAMSequenceDictionary;
+import htsjdk.samtools.SAMSequenceRecord;
+import htsjdk.samtools.SAMTextHeaderCodec;
+import htsjdk.samtools.SamInputResource;
+import htsjdk.samtools.SamReader;
+import htsjdk.samtools.SamReaderFactory;
+import htsjdk.samtools.ValidationStringency;
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import htsjdk.samtools.util.BlockCompressedStreamConstants;
+import htsjdk.samtools.util.BufferedLineReader;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.storage.StorageLevel;
+import scala.Tuple2;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Writes the alignments as a coordinate-sorted BAM file split into shards. The alignments are range-partitioned
+ * by reference position and sorted within each partition, and every partition is written as a shard of BGZF
+ * blocks without a header. Concatenating header.bam, the shards in order and an EOF block gives a valid BAM file.
+ * The shards are committed through ResultsOutput, so retried or speculative tasks do not leave duplicates.
+ */
+class BamOutput {
+
+    private static final Log LOG = LogFactory.getLog(BamOutput.class);
+
+    static final String HEADER_FILE = "header.bam";
+    static final String SHARD_FILE = "part-%05d.bam";
+    static final String MERGED_FILE = "aligned.bam";
+
+    // The reference sequences are read from the .ann file of the bwa index, so the header is known before the
+    // alignment runs. The @RG and @PG lines of the aligner are added to it, so the read groups of the records are
+    // declared.
+    static SAMFileHeader readHeader(String indexPath, List<String> alignerHeaderLines, Configuration conf)
+            throws IOException {
+        SAMSequenceDictionary dictionary = new SAMSequenceDictionary();
+        Path annotations = IndexProvisioner.sourcePath(indexPath + ".ann");
+
+        // A "length sequences seed" line, then a "gi name annotation" and an "offset length ambiguities" line
+        // for each sequence
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                annotations.getFileSystem(conf).open(annotations), StandardCharsets.UTF_8))) {
+            int numSequences = Integer.parseInt(reader.readLine().split(" ")[1]);
+
+            for (int i = 0; i < numSequences; i++) {
+                String name = reader.readLine().split(" ")[1];
+                int length = Integer.parseInt(reader.readLine().split(" ")[1]);
+                dictionary.addSequence(new SAMSequenceRecord(name, length));
+            }
+        }
+
+        SAMFileHeader header = new SAMFileHeader(dictionary);
+        header.setSortOrder(SAMFileHeader.SortOrder.coordinate);
+
+        if (!alignerHeaderLines.isEmpty()) {
+            SAMFileHeader alignerHeader = new SAMTextHeaderCodec().decode(
+                    BufferedLineReader.fromString(String.join("\n", alignerHeaderLines) + "\n"), null);
+            header.setReadGroups(alignerHeader.getReadGroups());
+            header.setProgramRecords(alignerHeader.getProgramRecords());
+        }
+        return header;
+    }
+
+    static void write(JavaRDD<String> alignments, String indexPath, List<String> alignerHeaderLines, Path outputDir,
+                      boolean merge, Configuration conf) throws IOException {
+        SAMFileHeader header = readHeader(indexPath, alignerHeaderLines, conf);
+
+        FileSystem fs = ResultsOutput.getFileSystem(outputDir, conf);
+        fs.mkdirs(outputDir);
+        try (OutputStream out = fs.create(new Path(outputDir, HEADER_FILE), true)) {
+            BAMFileWriter.writeHeader(out, header);
+        }
+
+        String outputPath = outputDir.toString();
+
+        // The keys are sampled for the bounds of the partitions before they are shuffled, and kept so that the
+        // reads are aligned once
+        JavaPairRDD<Long, String> keyed = alignments
+                .mapToPair(alignment -> new Tuple2<>(coordinateKey(header, alignment), alignment))
+                .persist(StorageLevel.MEMORY_AND_DISK_SER());
+
+        List<String> shards;
+        try {
+            CoordinatePartitioner partitioner = CoordinatePartitioner.fromSample(keyed.keys(),
+                    alignments.getNumPartitions());
+
+            shards = keyed
+                    .repartitionAndSortWithinPartitions(partitioner)
+                    .mapPartitionsWithIndex((index, sorted) ->
+                            Collections.singletonList(writeShard(header, sorted, outputPath, index)).iterator(), true)
+                    .collect();
+        } finally {
+            keyed.unpersist(false);
+        }
+
+        LOG.info("SparkAligner:: Wrote " + shards.size() + " sorted BAM shards to " + outputPath);
+
+        if (merge) {
+            merge(fs, outputDir, shards);
+        }
+    }
+
+    private static long coordinateKey(SAMFileHeader header, String alignment) {
+        String[] fields = alignment.split("\t", 5);
+        return CoordinatePartitioner.coordinateKey(header.getSequenceIndex(fields[2]), Integer.parseInt(fields[3]),
+                fields[0]);
+    }
+
+    private static String writeShard(SAMFileHeader header, Iterator<Tuple2<Long, String>> sorted, String outputPath,
+                                     int index) throws IOException {
+        Path outputDir = new Path(outputPath);
+        FileSystem fs = ResultsOutput.getFileSystem(outputDir, ResultsOutput.taskConfiguration());
+        String shardName = String.format(SHARD_FILE, index);
+        Path attemptFile = ResultsOutput.attemptPath(outputDir, shardName);
+
+        // Records are checked by the aligner already
+        SAMLineParser parser = new SAMLineParser(new DefaultSAMRecordFactory(), ValidationStringency.SILENT, header,
+                null, null);
+        BAMRecordCodec codec = new BAMRecordCodec(header);
+        BlockCompressedOutputStream out =
+                new BlockCompressedOutputStream(fs.create(attemptFile, true), (java.nio.file.Path) null);
+        codec.setOutputStream(out);
+
+        while (sorted.hasNext()) {
+            codec.encode(parser.parseLine(sorted.next()._2()));
+        }
+
+        // Only the end of the concatenated file gets the EOF block
+        out.close(false);
+        return ResultsOutput.commit(fs, attemptFile, new Path(outputDir, shardName)).toString();
+    }
+
+    // The merged file and its index are written to the temporary folder and renamed into place, so that a
+    // failed merge does not leave a truncated aligned.bam behind.
+    private static void merge(FileSystem fs, Path outputDir, List<String> shards) throws IOException {
+        Path merged = new Path(outputDir, MERGED_FILE);
+        Path mergedIndex = new Path(outputDir, MERGED_FILE + ".bai");
+        Path temporaryDir = new Path(outputDir, ResultsOutput.TEMPORARY_DIR);
+        Path temporaryMerged = new Path(temporaryDir, MERGED_FILE);
+        Path temporaryIndex = new Path(temporaryDir, MERGED_FILE + ".bai");
+        fs.mkdirs(temporaryDir);
+
+        try (OutputStream out = fs.create(temporaryMerged, true)) {
+            copy(fs, new Path(outputDir, HEADER_FILE), out);
+            for (String shard : shards) {
+                copy(fs, new Path(shard), out);
+            }
+            out.write(BlockCompressedStreamConstants.EMPTY_GZIP_BLOCK);
+        }
+
+        // The index records the offset of every record, so it is built by reading the merged file back
+        long length = fs.getFileStatus(temporaryMerged).getLen();
+        try (SamReader reader = SamReaderFactory.makeDefault()
+                .enable(SamReaderFactory.Option.INCLUDE_SOURCE_IN_RECORDS)
+                .open(SamInputResource.of(
+                        new HadoopSeekableStream(fs.open(temporaryMerged), length, temporaryMerged)));
+             OutputStream indexOut = fs.create(temporaryIndex, true)) {
+
+            BAMIndexer indexer = new BAMIndexer(indexOut, reader.getFileHeader());
+            for (SAMRecord record : reader) {
+                indexer.processAlignment(record);
+            }
+            indexer.finish();
+        }
+
+        // The files of an earlier run are deleted together, so neither is left next to the other's replacement
+        fs.delete(mergedIndex, false);
+        fs.delete(merged, false);
+        rename(fs, temporaryMerged, merged);
+        rename(fs, temporaryIndex, mergedIndex);
+
+        LOG.info("SparkAligner:: Wrote " + merged + " and its index");
+    }
+
+    private static void rename(FileSystem fs, Path source, Path target) throws IOException {
+        if (!fs.rename(source, target)) {
+            throw new IOException("Could not rename " + source + " to " + target);
+        }
+    }
+
+    private static void copy(FileSystem fs, Path file, OutputStream out) throws IOException {
+        try (InputStream in = fs.open(file)) {
+            IOUtils.copyBytes(in, out, 1 << 16, false);
+        }
+    }
+}
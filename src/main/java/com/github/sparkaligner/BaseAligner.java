@@ -2,26 +2,50 @@ package com.github.sparkaligner;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
 import org.apache.spark.SparkConf;
 import org.apache.spark.api.java.JavaPairRDD;
 import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.serializer.KryoSerializer;
+import org.apache.spark.storage.StorageLevel;
+import org.apache.spark.util.LongAccumulator;
 import scala.Tuple2;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 public abstract class BaseAligner implements Serializable {
 
     private static final Log LOG = LogFactory.getLog(BaseAligner.class);
+    private static final Pattern MATE_FILE = Pattern.compile("[_.]R?[12]$");
     private static JavaSparkContext ctx;
     private String alignerName;
 
     protected AlignerOptions options;
 
+    // Reads the aligner reported as processed. The running tasks send their count to the driver with the
+    // executor heartbeats, where AlignmentProgressListener watches it.
+    private LongAccumulator processedReads;
+
+    // Timers and counters of the run, and those of the partition aligned by the task
+    private PipelineMetrics metrics;
+    private transient PartitionMetrics taskMetrics;
+
     public BaseAligner(String alignerName, AlignerOptions options) {
         this.alignerName = alignerName;
         this.options = options;
@@ -31,6 +55,10 @@ public abstract class BaseAligner implements Serializable {
             String appName = "SparkAligner-" + options.getPartitionNumber();
 
             sparkConf = new SparkConf().setAppName(appName);
+            useKryo(sparkConf);
+            if (options.isOneTaskPerExecutor()) {
+                reserveExecutorPerTask(sparkConf);
+            }
             this.ctx = new JavaSparkContext(sparkConf);
         }
     }
@@ -40,43 +68,387 @@ public abstract class BaseAligner implements Serializable {
         this.options = options;
 
         this.ctx = sparkContext;
+
+        if (options.isOneTaskPerExecutor()
+                && sparkContext.getConf().getInt("spark.task.cpus", 1) != sparkContext.getConf().getInt("spark.executor.cores", 0)) {
+            LOG.warn("SparkAligner:: The Spark context was created beforehand, set spark.task.cpus to "
+                    + "spark.executor.cores to run one task per executor");
+        }
+    }
+
+    // The reads are moved between stages as FASTQRecords, which Kryo serializes far more compactly than Java
+    // serialization does. Settings given with spark-submit are kept.
+    private static void useKryo(SparkConf sparkConf) {
+        sparkConf.setIfMissing("spark.serializer", KryoSerializer.class.getName());
+        sparkConf.setIfMissing("spark.kryo.registrator", SparkAlignerKryoRegistrator.class.getName());
+    }
+
+    // Giving each task all the cores of an executor runs one aligner per executor, using all the cores. This
+    // gets the most alignment out of each index load, and the partition planner makes fewer, larger partitions.
+    private static void reserveExecutorPerTask(SparkConf sparkConf) {
+        int executorCores = sparkConf.getInt("spark.executor.cores", 0);
+
+        if (executorCores <= 0) {
+            LOG.warn("SparkAligner:: spark.executor.cores is not set, can not run one task per executor");
+            return;
+        }
+
+        LOG.info("SparkAligner:: Running one task per executor with spark.task.cpus=" + executorCores);
+        sparkConf.set("spark.task.cpus", String.valueOf(executorCores));
+    }
+
+    // The @RG and @PG lines the aligner writes to the header of its SAM output, which the BAM output keeps.
+    public List<String> getSamHeaderLines() {
+        return Collections.emptyList();
+    }
+
+    // Number of reads that a line the aligner wrote to stderr reports as processed, or 0. Aligners that report
+    // their progress override this.
+    protected long parseProcessedReads(String errorLine) {
+        return 0;
+    }
+
+    private void reportProgress(String errorLine) {
+        long reads = parseProcessedReads(errorLine);
+        if (reads > 0) {
+            this.addProcessedReads(reads);
+        }
     }
 
-    abstract public void alignReads(String fastqFileName1, String fastqFileName2);
+    protected void addProcessedReads(long reads) {
+        if (this.processedReads != null) {
+            this.processedReads.add(reads);
+        }
+    }
 
     protected int runAligner(ArrayList<String> args) {
-        return MiscUtils.executeResourceBinary(alignerName, args);
+        return this.runAligner(args, null);
+    }
+
+    protected int runAligner(ArrayList<String> args, ReadsWriter reads) {
+        return MiscUtils.executeResourceBinary(alignerName, args, reads, this::reportProgress);
+    }
+
+    void setTaskMetrics(PartitionMetrics taskMetrics) {
+        this.taskMetrics = taskMetrics;
+    }
+
+    void addPartitionMetrics(PartitionMetrics partitionMetrics) {
+        if (this.metrics != null) {
+            this.metrics.addPartition(partitionMetrics);
+        }
+    }
+
+    // For aligners that load their index in a separate step
+    protected void addIndexLoadTime(long nanos) {
+        if (this.taskMetrics != null) {
+            this.taskMetrics.addIndexNanos(nanos);
+        }
+    }
+
+    private void watchProgress() {
+        this.processedReads = this.ctx.sc().longAccumulator("SparkAligner: processed reads");
+
+        long stallTimeoutMs = this.ctx.getConf().getTimeAsMs("spark.sparkaligner.stallTimeout", "10min");
+        this.ctx.sc().addSparkListener(new AlignmentProgressListener(this.processedReads.id(), stallTimeoutMs));
     }
 
     public void run() {
+        long runStart = System.nanoTime();
+        if (this.options.isWatch()) {
+            this.startRun();
+            this.watch(runStart);
+            return;
+        }
+
         List<File> inputFiles = MiscUtils.getFilesInFolder(this.options.getInputPath());
-        List<Tuple2<File, File>> pairedInputFiles = pairFastqFiles(inputFiles);
+        if (inputFiles == null || inputFiles.isEmpty()) {
+            return;
+        }
+
+        this.startRun();
+        this.alignFiles(pairFastqFiles(inputFiles));
+        this.writeReport(runStart);
+    }
+
+    private void startRun() {
+        if (this.processedReads == null) {
+            watchProgress();
+        }
+        this.metrics = new PipelineMetrics(this.ctx.sc());
+    }
+
+    // Aligns the FASTQ files as the sequencer writes them into the input folder, in micro-batches run by the same
+    // executors, which keep the extracted binaries, index copies and loaded indices between batches. A file is
+    // aligned once its size stayed the same for a poll, and a mate file waits for its mate. The watch ends once the
+    // done file appears in the input folder and every file written before it is aligned.
+    //
+    // The batches are planned by the driver like a regular run, rather than with a Spark Streaming file source,
+    // whose records do not tell which file they come from. Mates could then not be paired by file name and zipped
+    // record by record, nor the results named after their input file.
+    private void watch(long runStart) {
+        long intervalMs = this.ctx.getConf().getTimeAsMs("spark.sparkaligner.watch.interval", "30s");
+        String doneFileName = this.ctx.getConf().get("spark.sparkaligner.watch.doneFile", "_DONE");
+        File doneFile = new File(this.options.getInputPath(), doneFileName);
+
+        LOG.info("SparkAligner:: Watching " + this.options.getInputPath() + " for FASTQ files until " + doneFile
+                + " is written");
+
+        Set<File> alignedFiles = new HashSet<>();
+        Map<File, Long> lastSizes = new HashMap<>();
+        int batch = 0;
+
+        while (true) {
+            // Checked before listing, so every file written before the done file is in the listing
+            boolean done = doneFile.exists();
+
+            List<File> readyFiles = new ArrayList<>();
+            Map<File, Long> sizes = new HashMap<>();
+            List<File> inputFiles = MiscUtils.getFilesInFolder(this.options.getInputPath());
+            for (File inputFile : inputFiles != null ? inputFiles : new ArrayList<File>()) {
+                if (alignedFiles.contains(inputFile)) {
+                    continue;
+                }
+
+                long size = inputFile.length();
+                sizes.put(inputFile, size);
+                if (done || Long.valueOf(size).equals(lastSizes.get(inputFile))) {
+                    readyFiles.add(inputFile);
+                }
+            }
+            lastSizes = sizes;
+
+            List<Tuple2<File, File>> batchFiles = new ArrayList<>();
+            for (Tuple2<File, File> inputFileTuple : pairFastqFiles(readyFiles)) {
+                if (inputFileTuple._2 != null || done || !isMateFile(inputFileTuple._1)) {
+                    batchFiles.add(inputFileTuple);
+                }
+            }
+
+            if (!batchFiles.isEmpty()) {
+                LOG.info("SparkAligner:: Aligning batch " + batch + " of " + batchFiles.size() + " inputs");
+                this.alignFiles(batchFiles);
+                this.writeReport(runStart);
+
+                for (Tuple2<File, File> inputFileTuple : batchFiles) {
+                    alignedFiles.add(inputFileTuple._1);
+                    if (inputFileTuple._2 != null) {
+                        alignedFiles.add(inputFileTuple._2);
+                    }
+                }
+                batch++;
+
+            } else if (done) {
+                LOG.info("SparkAligner:: " + doneFile + " was written, aligned " + alignedFiles.size() + " files");
+                return;
+
+            } else {
+                try {
+                    Thread.sleep(intervalMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    // Files named as one of a pair of mates, such as sample_1.fastq or sample_R2.fq.gz
+    private static boolean isMateFile(File inputFile) {
+        return MATE_FILE.matcher(MiscUtils.removeExtenstion(inputFile.getName())).find();
+    }
+
+    private void writeReport(long runStart) {
+        String appId = this.ctx.sc().applicationId();
+        Path outputDir = new Path(ResultsOutput.outputDir(this.options, new File(this.options.getInputPath()), appId));
+        LOG.info("SparkAligner:: " + this.alignerName + " processed " + this.processedReads.value() + " reads");
+        this.metrics.writeReport(new Path(outputDir, PipelineMetrics.REPORT_FILE), this.ctx.hadoopConfiguration(),
+                appId, System.nanoTime() - runStart);
+    }
+
+    private void alignFiles(List<Tuple2<File, File>> pairedInputFiles) {
+        // Index all the mate files in one job, rather than one job per file. A resumed run also indexes the
+        // single-end files, so that they are split into the same record ranges as in the earlier run.
+        List<File> indexedFiles = new ArrayList<>();
+        for (Tuple2<File, File> inputFileTuple : pairedInputFiles) {
+            if (inputFileTuple._1 != null && inputFileTuple._2 != null) {
+                indexedFiles.add(inputFileTuple._1);
+                indexedFiles.add(inputFileTuple._2);
+            } else if (this.options.isResume() && isSplittable(inputFileTuple._1)) {
+                indexedFiles.add(inputFileTuple._1);
+            }
+        }
+        List<FASTQSplitIndex> indices = indexedFiles.isEmpty()
+                ? new ArrayList<>() : FASTQSplitIndex.build(this.ctx, indexedFiles);
+
+        // Trimmed in the partitions they are aligned in, which keeps the mates of each partition together
+        ReadTrimmer trimmer = this.options.isTrimming() ? new ReadTrimmer(this.options, this.metrics) : null;
 
-        List<String> returnedValues = new ArrayList<>();
+        List<InputReads> inputs = new ArrayList<>();
         for (Tuple2<File, File> inputFileTuple : pairedInputFiles) {
             File inputFile1 = inputFileTuple._1;
             File inputFile2 = inputFileTuple._2;
 
             if (inputFile1 != null && inputFile2 != null) {
-                JavaRDD<Tuple2<String, String>> readsRDD = handlePairedReadsSorting(inputFile1, inputFile2);
-                returnedValues.addAll(mapPaired(this, readsRDD, inputFile1));
+                int mateIndex = indexedFiles.indexOf(inputFile1);
+                JavaRDD<Tuple2<FASTQRecord, FASTQRecord>> pairedReads = handlePairedReadsSorting(
+                        inputFile1, indices.get(mateIndex), inputFile2, indices.get(mateIndex + 1));
+                inputs.add(new InputReads(inputFile1, null,
+                        trimmer != null ? trimmer.trimPaired(pairedReads) : pairedReads));
             } else {
-                JavaRDD<String> readsRDD = handleSingleReadsSorting(inputFile1);
-                returnedValues.addAll(mapSingle(this, readsRDD, inputFile1));
+                int fileIndex = indexedFiles.indexOf(inputFile1);
+                JavaRDD<FASTQRecord> singleReads = handleSingleReadsSorting(inputFile1,
+                        fileIndex >= 0 ? indices.get(fileIndex) : null);
+                inputs.add(new InputReads(inputFile1,
+                        trimmer != null ? trimmer.trimSingle(singleReads) : singleReads, null));
             }
         }
+
+        List<String> references = this.options.getIndexPaths();
+        String appId = this.ctx.sc().applicationId();
+
+        // Every reference aligns the same partitions, which are only loaded and shuffled once
+        if (references.size() > 1) {
+            inputs.forEach(InputReads::persist);
+        }
+
+        for (int referenceIndex = 0; referenceIndex < references.size(); referenceIndex++) {
+            this.options.setIndexPath(references.get(referenceIndex));
+            boolean passUnmapped = this.options.isPassUnmapped() && referenceIndex + 1 < references.size();
+
+            // Plan every input file first and align them all in a single job, so the executors are kept busy
+            // across the whole input instead of waiting for the last partitions of each file.
+            List<JavaRDD<String>> alignedFiles = new ArrayList<>();
+            for (InputReads input : inputs) {
+                JavaRDD<String> alignedFile = this.align(input);
+                if (passUnmapped) {
+                    // Kept for finding the unmapped reads after the output is written
+                    alignedFile.persist(StorageLevel.MEMORY_AND_DISK_SER());
+                }
+                alignedFiles.add(alignedFile);
+            }
+
+            this.writeAlignments(alignedFiles, pairedInputFiles, appId);
+
+            if (passUnmapped) {
+                for (int i = 0; i < inputs.size(); i++) {
+                    InputReads unmapped = inputs.get(i).withoutReads(mappedReadNames(alignedFiles.get(i)));
+                    unmapped.persist();
+                    LOG.info("SparkAligner:: " + unmapped.count() + " reads of " + unmapped.inputFile.getName()
+                            + " are not mapped to " + references.get(referenceIndex) + ", aligning them against "
+                            + references.get(referenceIndex + 1));
+
+                    inputs.get(i).unpersist();
+                    alignedFiles.get(i).unpersist();
+                    inputs.set(i, unmapped);
+                }
+            }
+        }
+        inputs.forEach(InputReads::unpersist);
+    }
+
+    // The reads of an input file, or of a pair of mate files, split into the partitions the aligner is given
+    private static class InputReads {
+        final File inputFile;
+        final JavaRDD<FASTQRecord> singleReads;
+        final JavaRDD<Tuple2<FASTQRecord, FASTQRecord>> pairedReads;
+
+        InputReads(File inputFile, JavaRDD<FASTQRecord> singleReads,
+                   JavaRDD<Tuple2<FASTQRecord, FASTQRecord>> pairedReads) {
+            this.inputFile = inputFile;
+            this.singleReads = singleReads;
+            this.pairedReads = pairedReads;
+        }
+
+        JavaRDD<?> reads() {
+            return this.pairedReads != null ? this.pairedReads : this.singleReads;
+        }
+
+        void persist() {
+            this.reads().persist(StorageLevel.MEMORY_AND_DISK_SER());
+        }
+
+        void unpersist() {
+            this.reads().unpersist(false);
+        }
+
+        long count() {
+            return this.reads().count();
+        }
+
+        // The reads not named in readNames. A pair is left out if either mate is named.
+        InputReads withoutReads(JavaPairRDD<String, Boolean> readNames) {
+            if (this.pairedReads != null) {
+                return new InputReads(this.inputFile, null, this.pairedReads
+                        .mapToPair(pair -> new Tuple2<>(pair._1.getSamName(), pair))
+                        .subtractByKey(readNames)
+                        .values());
+            }
+
+            return new InputReads(this.inputFile, this.singleReads
+                    .mapToPair(read -> new Tuple2<>(read.getSamName(), read))
+                    .subtractByKey(readNames)
+                    .values(), null);
+        }
+    }
+
+    private JavaRDD<String> align(InputReads input) {
+        if (input.pairedReads != null) {
+            return this.options.isCollapseDuplicates()
+                    ? DuplicateCollapser.alignPaired(this, input.pairedReads, input.inputFile)
+                    : mapPaired(this, input.pairedReads, input.inputFile);
+        }
+
+        return this.options.isCollapseDuplicates()
+                ? DuplicateCollapser.alignSingle(this, input.singleReads, input.inputFile)
+                : mapSingle(this, input.singleReads, input.inputFile);
+    }
+
+    // The names of the reads with a mapped primary alignment
+    private static JavaPairRDD<String, Boolean> mappedReadNames(JavaRDD<String> alignments) {
+        return alignments
+                .filter(alignment -> (Integer.parseInt(alignment.split("\t", 3)[1]) & (0x4 | 0x100 | 0x800)) == 0)
+                .mapToPair(alignment -> new Tuple2<>(alignment.substring(0, alignment.indexOf('\t')), true));
     }
 
-    protected List<String> mapPaired(BaseAligner aligner, JavaRDD<Tuple2<String, String>> readsRDD, File inputFile) {
+    // Writes the alignments against the reference being aligned against into its output folder.
+    private void writeAlignments(List<JavaRDD<String>> alignedFiles, List<Tuple2<File, File>> pairedInputFiles,
+                                 String appId) {
+        JavaRDD<String> aligned = this.ctx.union(alignedFiles.get(0), alignedFiles.subList(1, alignedFiles.size()));
+
+        if (this.options.isBamOutput()) {
+            // The partitions return their alignments, which are sorted into a single BAM file
+            Path outputDir = new Path(ResultsOutput.referenceOutputDir(this.options,
+                    new File(this.options.getInputPath()), appId));
+            try {
+                BamOutput.write(aligned, this.options.getIndexPath(), this.getSamHeaderLines(), outputDir,
+                        this.options.isMergeBam(),
+                        this.ctx.hadoopConfiguration());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                ResultsOutput.cleanup(outputDir, this.ctx.hadoopConfiguration());
+            }
+
+        } else {
+            List<String> returnedValues = aligned.collect();
+
+            for (Tuple2<File, File> inputFileTuple : pairedInputFiles) {
+                ResultsOutput.cleanup(new Path(ResultsOutput.referenceOutputDir(this.options,
+                        inputFileTuple._1.getAbsoluteFile().getParentFile(), appId)),
+                        this.ctx.hadoopConfiguration());
+            }
+        }
+    }
+
+    protected JavaRDD<String> mapPaired(BaseAligner aligner, JavaRDD<Tuple2<FASTQRecord, FASTQRecord>> readsRDD, File inputFile) {
         return readsRDD
-                .mapPartitionsWithIndex(new PairedAlignment(readsRDD.context(), aligner, inputFile), true)
-                .collect();
+                .mapPartitionsWithIndex(new PairedAlignment(readsRDD.context(), aligner, inputFile), true);
     }
 
-    protected List<String> mapSingle(BaseAligner aligner, JavaRDD<String> readsRDD, File inputFile) {
+    protected JavaRDD<String> mapSingle(BaseAligner aligner, JavaRDD<FASTQRecord> readsRDD, File inputFile) {
         return readsRDD
-                .mapPartitionsWithIndex(new SingleAlignment(readsRDD.context(), aligner, inputFile), true)
-                .collect();
+                .mapPartitionsWithIndex(new SingleAlignment(readsRDD.context(), aligner, inputFile), true);
     }
 
 
@@ -102,44 +474,139 @@ public abstract class BaseAligner implements Serializable {
         return new ArrayList<>(fastqMapper.values());
     }
 
-    public static JavaPairRDD<Long, String> loadFastq(JavaSparkContext ctx, File inputFastqFiles) {
-        JavaRDD<String> fastqLines = ctx.textFile(inputFastqFiles.getPath());
+    public static JavaRDD<FASTQRecord> loadFastqRecords(JavaSparkContext ctx, File inputFastqFiles) {
+        return loadFastqRecords(ctx, inputFastqFiles, null);
+    }
+
+    static JavaRDD<FASTQRecord> loadFastqRecords(JavaSparkContext ctx, File inputFastqFiles, PipelineMetrics metrics) {
+        // Every split finds its own record boundaries, so whole records are read without a shuffle.
+        return parseRecords(ctx
+                .newAPIHadoopFile(inputFastqFiles.getPath(), FASTQInputFormat.class, LongWritable.class, Text.class,
+                        ctx.hadoopConfiguration()), metrics);
+    }
 
-        // Determine which FASTQ record the line belongs to.
-        JavaPairRDD<Long, Tuple2<String, Long>> fastqLinesByRecordNum = fastqLines.zipWithIndex().mapToPair(new FASTQRecordGrouper());
+    private static JavaRDD<FASTQRecord> parseRecords(JavaPairRDD<LongWritable, Text> records, PipelineMetrics metrics) {
+        if (metrics == null) {
+            return records.map(record -> FASTQRecord.fromText(record._2()));
+        }
+        return records.map(record -> metrics.parse(record._2()));
+    }
 
-        // Group group the lines which belongs to the same record, and concatinate them into a record.
-        return fastqLinesByRecordNum.groupByKey().mapValues(new FASTQRecordCreator());
+    public static JavaPairRDD<Long, FASTQRecord> loadFastq(JavaSparkContext ctx, File inputFastqFiles) {
+        // Number the records in file order. This only needs the record count of each split.
+        return loadFastqRecords(ctx, inputFastqFiles)
+                .zipWithIndex()
+                .mapToPair(record -> new Tuple2<>(record._2(), record._1()));
     }
 
-    protected JavaRDD<String> handleSingleReadsSorting(File inputFastq) {
-        JavaPairRDD<Long, String> singleReadsKeyVal = loadFastq(this.ctx, inputFastq);
+    protected JavaRDD<FASTQRecord> handleSingleReadsSorting(File inputFastq) {
+        return handleSingleReadsSorting(inputFastq, null);
+    }
 
+    // Without an index of the file, its reads are shuffled into the partitions round-robin, which deals them out
+    // differently whenever the file is split differently. With one, as in a resumed run, the file is split into
+    // record ranges without a shuffle, so a partition always holds the same reads, and the partitions an earlier
+    // run completed are skipped without reading them.
+    protected JavaRDD<FASTQRecord> handleSingleReadsSorting(File inputFastq, FASTQSplitIndex index) {
         int numPartitions = options.getPartitionNumber();
         if (numPartitions <= 0) {
-            numPartitions = this.ctx.sc().getExecutorStorageStatus().length;
+            long numReads = index != null
+                    ? index.getNumRecords() : PartitionPlanner.estimateReads(this.ctx, inputFastq);
+            numPartitions = PartitionPlanner.plan(this.ctx, inputFastq.getName(), numReads,
+                    options.getReadsPerPartition());
         }
+        numPartitions = resumablePartitions(inputFastq, numPartitions);
 
-        return singleReadsKeyVal.repartition(numPartitions).values();
+        if (index != null) {
+            return loadIndexedFastq(inputFastq, index, numPartitions);
+        }
+
+        // The record numbers are not needed here, so there is no job to count the records of each split. A file
+        // that can not be split is read by a single task, so it is dealt out the same way in every run.
+        JavaRDD<FASTQRecord> singleReads = loadFastqRecords(this.ctx, inputFastq, this.metrics);
+        return singleReads.repartition(numPartitions);
     }
 
-    protected JavaRDD<Tuple2<String, String>> handlePairedReadsSorting(File inputFastq1, File inputFastq2) {
-        JavaPairRDD<Long, String> datasetTmp1 = loadFastq(this.ctx, inputFastq1);
-        JavaPairRDD<Long, String> datasetTmp2 = loadFastq(this.ctx, inputFastq2);
+    protected JavaRDD<Tuple2<FASTQRecord, FASTQRecord>> handlePairedReadsSorting(File inputFastq1, File inputFastq2) {
+        List<FASTQSplitIndex> indices = FASTQSplitIndex.build(this.ctx, Arrays.asList(inputFastq1, inputFastq2));
+        return handlePairedReadsSorting(inputFastq1, indices.get(0), inputFastq2, indices.get(1));
+    }
 
-        JavaPairRDD<Long, Tuple2<String, String>> pairedReadsRDD = datasetTmp1.join(datasetTmp2);
+    protected JavaRDD<Tuple2<FASTQRecord, FASTQRecord>> handlePairedReadsSorting(File inputFastq1, FASTQSplitIndex index1,
+                                                                        File inputFastq2, FASTQSplitIndex index2) {
+        if (index1.getNumRecords() != index2.getNumRecords()) {
+            throw new IllegalArgumentException(String.format("%s has %d reads, but its mate file %s has %d reads",
+                    inputFastq1, index1.getNumRecords(), inputFastq2, index2.getNumRecords()));
+        }
 
         int numPartitions = options.getPartitionNumber();
         if (numPartitions <= 0) {
-            numPartitions = this.ctx.sc().getExecutorStorageStatus().length;
+            numPartitions = PartitionPlanner.plan(this.ctx, inputFastq1.getName(), index1.getNumRecords(),
+                    options.getReadsPerPartition());
         }
+        numPartitions = resumablePartitions(inputFastq1, numPartitions);
+
+        if (!isSplittable(inputFastq1) || !isSplittable(inputFastq2)) {
+            // Each file is decompressed by a single task from its start, so read them whole and shuffle the
+            // pairs into the partitions instead. The mate that can be split is read by a single task too, as zip
+            // needs the same partitions on both sides.
+            LOG.warn("SparkAligner:: " + inputFastq1.getName() + " or " + inputFastq2.getName()
+                    + " can not be split, compress them with bgzip to read them in parallel");
+
+            return loadFastqRecords(this.ctx, inputFastq1, this.metrics).coalesce(1)
+                    .zip(loadFastqRecords(this.ctx, inputFastq2, this.metrics).coalesce(1))
+                    .rdd().toJavaRDD()
+                    .repartition(numPartitions);
+        }
+
+        // Both files are split into the same record ranges, so partition N of each holds the same reads
+        // and the mates can be zipped together without a shuffle.
+        JavaRDD<FASTQRecord> reads1 = loadIndexedFastq(inputFastq1, index1, numPartitions);
+        JavaRDD<FASTQRecord> reads2 = loadIndexedFastq(inputFastq2, index2, numPartitions);
+
+        return reads1.zip(reads2).rdd().toJavaRDD();
+    }
 
-        return pairedReadsRDD.repartition(numPartitions).values();
+    // A resumed run has to split the reads into the partitions of the earlier runs, as the partition index
+    // names the results.
+    private int resumablePartitions(File inputFastq, int numPartitions) {
+        if (!this.options.isResume()) {
+            return numPartitions;
+        }
+
+        Path outputDir = new Path(ResultsOutput.referenceOutputDir(this.options,
+                inputFastq.getAbsoluteFile().getParentFile(), this.ctx.sc().applicationId()));
+        try {
+            return ResumeManifest.resolvePartitions(outputDir, ResumeManifest.inputName(this.options, inputFastq),
+                    numPartitions, this.ctx.hadoopConfiguration());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private boolean isSplittable(File inputFastq) {
+        return FASTQInputFormat.isSplittable(this.ctx.hadoopConfiguration(), new Path(inputFastq.getPath()));
+    }
+
+    private JavaRDD<FASTQRecord> loadIndexedFastq(File inputFastq, FASTQSplitIndex index, int numPartitions) {
+        Configuration conf = new Configuration(this.ctx.hadoopConfiguration());
+        IndexedFASTQInputFormat.setInput(conf, inputFastq, index, numPartitions);
+
+        return parseRecords(this.ctx
+                .newAPIHadoopRDD(conf, IndexedFASTQInputFormat.class, LongWritable.class, Text.class), this.metrics);
     }
 
     public int execute(int algorithmState, String inputFile1, String inputFile2) {
         ArrayList<String> parametersArray = this.options.generateParameters(algorithmState, inputFile1, inputFile2);
-        int returnCode = this.runAligner(parametersArray);
+        return this.execute(parametersArray, null);
+    }
+
+    public int execute(ArrayList<String> parametersArray, ReadsWriter reads) {
+        long processStart = System.nanoTime();
+        int returnCode = this.runAligner(parametersArray, reads);
+        if (this.taskMetrics != null) {
+            this.taskMetrics.addProcessNanos(System.nanoTime() - processStart);
+        }
 
         if (returnCode != 0) {
             LOG.error(this.alignerName + "exited with error code: " + String.valueOf(returnCode));
@@ -0,0 +1,185 @@
+package com.github.sparkaligner;
+
+import org.apache.spark.Partitioner;
+import org.apache.spark.api.java.JavaRDD;
+import scala.Tuple2;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Range-partitions alignments by their position on the reference. Keys come from coordinateKey, so partition N
+ * only holds alignments placed before those of partition N + 1. The bounds of the ranges are picked from a sample
+ * of the keys, as RangePartitioner does, so every partition gets a similar number of alignments however they are
+ * spread over the reference. The unplaced reads are spread over trailing partitions of their own, by read name so
+ * that the mates of a pair stay together.
+ */
+class CoordinatePartitioner extends Partitioner {
+
+    // The unplaced reads sort after every reference, by the hash of their name
+    static final long UNPLACED = (long) Integer.MAX_VALUE << 32;
+
+    private static final int SAMPLES_PER_PARTITION = 20;
+    private static final int MAX_SAMPLES = 1000000;
+
+    private final long[] bounds;
+    private final int unplacedPartitions;
+
+    // Partition i holds the placed keys up to bounds[i], and the last placed partition those after every bound
+    CoordinatePartitioner(long[] bounds, int unplacedPartitions) {
+        this.bounds = bounds;
+        this.unplacedPartitions = unplacedPartitions;
+    }
+
+    // Sorts by reference index and then by 1-based position, the order of a coordinate-sorted BAM file.
+    static long coordinateKey(int referenceIndex, int position, String readName) {
+        if (referenceIndex < 0) {
+            return UNPLACED | (readName.hashCode() & 0xffffffffL);
+        }
+        return ((long) referenceIndex << 32) | (position & 0xffffffffL);
+    }
+
+    /**
+     * Splits numPartitions between the placed and unplaced reads in proportion to their numbers, and picks the
+     * bounds of the placed ones from a sample of the keys. The keys are computed twice, so the RDD they come
+     * from should be persisted.
+     */
+    static CoordinatePartitioner fromSample(JavaRDD<Long> keys, int numPartitions) {
+        int sampleSize = Math.min(SAMPLES_PER_PARTITION * numPartitions, MAX_SAMPLES);
+        // Oversampled, as the partitions of the input can hold very different numbers of alignments
+        int samplesPerInput = (int) Math.ceil(3.0 * sampleSize / Math.max(1, keys.getNumPartitions()));
+
+        List<long[]> samples = keys
+                .mapPartitionsWithIndex((index, partitionKeys) ->
+                        Collections.singletonList(sample(partitionKeys, samplesPerInput, index)).iterator(), false)
+                .collect();
+
+        long placed = 0;
+        long unplaced = 0;
+        for (long[] sample : samples) {
+            placed += sample[0];
+            unplaced += sample[1];
+        }
+
+        int unplacedPartitions = 0;
+        if (unplaced > 0 && numPartitions > 1) {
+            unplacedPartitions = (int) Math.max(1, Math.round((double) numPartitions * unplaced / (placed + unplaced)));
+            unplacedPartitions = Math.min(numPartitions - 1, unplacedPartitions);
+        }
+
+        return new CoordinatePartitioner(bounds(samples, numPartitions - unplacedPartitions), unplacedPartitions);
+    }
+
+    // Reservoir-samples the placed keys of a partition. Returns the number of placed and unplaced keys, followed
+    // by the sample.
+    private static long[] sample(Iterator<Long> keys, int sampleSize, int seed) {
+        long[] reservoir = new long[sampleSize];
+        Random random = new Random(seed);
+        long placed = 0;
+        long unplaced = 0;
+
+        while (keys.hasNext()) {
+            long key = keys.next();
+            if (key >= UNPLACED) {
+                unplaced++;
+                continue;
+            }
+
+            if (placed < sampleSize) {
+                reservoir[(int) placed] = key;
+            } else {
+                long slot = (long) (random.nextDouble() * (placed + 1));
+                if (slot < sampleSize) {
+                    reservoir[(int) slot] = key;
+                }
+            }
+            placed++;
+        }
+
+        int sampled = (int) Math.min(placed, sampleSize);
+        long[] sample = new long[sampled + 2];
+        sample[0] = placed;
+        sample[1] = unplaced;
+        System.arraycopy(reservoir, 0, sample, 2, sampled);
+        return sample;
+    }
+
+    // Each sampled key stands for placed / sampled keys of its partition. The bounds are the keys at which the
+    // weight reaches each of equal shares of the total.
+    private static long[] bounds(List<long[]> samples, int placedPartitions) {
+        List<Tuple2<Long, Double>> weightedKeys = new ArrayList<>();
+        double totalWeight = 0;
+
+        for (long[] sample : samples) {
+            int sampled = sample.length - 2;
+            if (sampled == 0) {
+                continue;
+            }
+
+            double weight = (double) sample[0] / sampled;
+            for (int i = 2; i < sample.length; i++) {
+                weightedKeys.add(new Tuple2<>(sample[i], weight));
+            }
+            totalWeight += sample[0];
+        }
+
+        weightedKeys.sort((a, b) -> Long.compare(a._1(), b._1()));
+
+        List<Long> bounds = new ArrayList<>();
+        double step = totalWeight / placedPartitions;
+        double cumulativeWeight = 0;
+        double target = step;
+
+        for (Tuple2<Long, Double> weightedKey : weightedKeys) {
+            if (bounds.size() == placedPartitions - 1) {
+                break;
+            }
+
+            cumulativeWeight += weightedKey._2();
+            // Identical keys must go to the same partition, so a bound is never repeated
+            if (cumulativeWeight >= target && (bounds.isEmpty() || weightedKey._1() > bounds.get(bounds.size() - 1))) {
+                bounds.add(weightedKey._1());
+                target += step;
+            }
+        }
+
+        return bounds.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    @Override
+    public int numPartitions() {
+        return this.bounds.length + 1 + this.unplacedPartitions;
+    }
+
+    @Override
+    public int getPartition(Object key) {
+        long coordinateKey = (Long) key;
+
+        if (coordinateKey >= UNPLACED) {
+            if (this.unplacedPartitions == 0) {
+                return this.bounds.length;
+            }
+            return this.bounds.length + 1 + (int) ((coordinateKey & 0xffffffffL) % this.unplacedPartitions);
+        }
+
+        // The first bound at or after the key
+        int index = Arrays.binarySearch(this.bounds, coordinateKey);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof CoordinatePartitioner
+                && ((CoordinatePartitioner) other).unplacedPartitions == this.unplacedPartitions
+                && Arrays.equals(((CoordinatePartitioner) other).bounds, this.bounds);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * this.unplacedPartitions + Arrays.hashCode(this.bounds);
+    }
+}
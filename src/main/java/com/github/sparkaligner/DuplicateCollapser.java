@@ -0,0 +1,114 @@
+package com.github.sparkaligner;
+
+import org.apache.spark.HashPartitioner;
+import org.apache.spark.api.java.JavaPairRDD;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.function.Function;
+import org.apache.spark.api.java.function.Function2;
+import scala.Tuple2;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Aligns a single read of every group of reads with the same sequence, or pairs with the same sequences for both
+ * mates, and gives its alignments to every read of the group. The copies get their own name and qualities, so the
+ * result is that of aligning every read, without aligning the copies.
+ *
+ * The reads are hash-partitioned by sequence once. The representatives are picked from those partitions without
+ * another shuffle, and the alignments are joined back to the reads in them, so only the alignments are shuffled.
+ */
+class DuplicateCollapser {
+
+    private static final Pattern LEADING_HARD_CLIP = Pattern.compile("^(\\d+)H");
+    private static final Pattern TRAILING_HARD_CLIP = Pattern.compile("(\\d+)H$");
+
+    static JavaRDD<String> alignSingle(BaseAligner aligner, JavaRDD<FASTQRecord> reads, File inputFile) {
+        return align(reads,
+                read -> new String(read.getSequence(), StandardCharsets.US_ASCII),
+                representatives -> aligner.mapSingle(aligner, representatives, inputFile),
+                (read, flag) -> read);
+    }
+
+    static JavaRDD<String> alignPaired(BaseAligner aligner, JavaRDD<Tuple2<FASTQRecord, FASTQRecord>> reads,
+                                       File inputFile) {
+        return align(reads,
+                pair -> new String(pair._1.getSequence(), StandardCharsets.US_ASCII) + " "
+                        + new String(pair._2.getSequence(), StandardCharsets.US_ASCII),
+                representatives -> aligner.mapPaired(aligner, representatives, inputFile),
+                (pair, flag) -> (flag & 0x80) != 0 ? pair._2 : pair._1);
+    }
+
+    // mateOf gives the record of a read, or of a pair, that an alignment with the given flag belongs to.
+    private static <T> JavaRDD<String> align(JavaRDD<T> reads, Function<T, String> sequenceKey,
+                                             java.util.function.Function<JavaRDD<T>, JavaRDD<String>> alignReads,
+                                             Function2<T, Integer, FASTQRecord> mateOf) {
+        HashPartitioner partitioner = new HashPartitioner(reads.getNumPartitions());
+
+        JavaPairRDD<String, T> readsBySequence = reads
+                .mapToPair(read -> new Tuple2<>(sequenceKey.call(read), read))
+                .partitionBy(partitioner);
+
+        // The read with the smallest name, so a retried task picks the same one
+        JavaPairRDD<String, T> representatives = readsBySequence.reduceByKey(partitioner, (read1, read2) ->
+                compareNames(mateOf.call(read1, 0x40), mateOf.call(read2, 0x40)) <= 0 ? read1 : read2);
+
+        JavaRDD<String> alignments = alignReads.apply(representatives.values());
+
+        JavaPairRDD<String, String> alignmentsBySequence = representatives
+                .mapToPair(representative -> new Tuple2<>(mateOf.call(representative._2(), 0x40).getSamName(),
+                        representative._1()))
+                .join(alignments.mapToPair(alignment -> new Tuple2<>(alignment.substring(0, alignment.indexOf('\t')),
+                        alignment)))
+                .mapToPair(Tuple2::_2);
+
+        return readsBySequence
+                .join(alignmentsBySequence, partitioner)
+                .map(grouped -> {
+                    T read = grouped._2()._1();
+                    String alignment = grouped._2()._2();
+                    int flag = Integer.parseInt(alignment.split("\t", 3)[1]);
+                    return copyAlignment(alignment, mateOf.call(read, flag));
+                });
+    }
+
+    private static int compareNames(FASTQRecord read1, FASTQRecord read2) {
+        byte[] name1 = read1.getName();
+        byte[] name2 = read2.getName();
+        for (int i = 0; i < Math.min(name1.length, name2.length); i++) {
+            if (name1[i] != name2[i]) {
+                return name1[i] - name2[i];
+            }
+        }
+        return name1.length - name2.length;
+    }
+
+    // The alignment of the representative, with the name and qualities of the read. A read on the reverse strand
+    // has its qualities reversed, and hard clipped bases are not in the record. Secondary alignments have no
+    // qualities.
+    static String copyAlignment(String alignment, FASTQRecord read) {
+        String[] fields = alignment.split("\t", -1);
+        fields[0] = read.getSamName();
+
+        if (!fields[10].equals("*")) {
+            int flag = Integer.parseInt(fields[1]);
+            StringBuilder quality = new StringBuilder(new String(read.getQuality(), StandardCharsets.US_ASCII));
+            if ((flag & 0x10) != 0) {
+                quality.reverse();
+            }
+
+            int start = hardClip(LEADING_HARD_CLIP, fields[5]);
+            int end = quality.length() - hardClip(TRAILING_HARD_CLIP, fields[5]);
+            fields[10] = quality.substring(start, end);
+        }
+
+        return String.join("\t", fields);
+    }
+
+    private static int hardClip(Pattern clip, String cigar) {
+        Matcher matcher = clip.matcher(cigar);
+        return matcher.find() ? Integer.parseInt(matcher.group(1)) : 0;
+    }
+}
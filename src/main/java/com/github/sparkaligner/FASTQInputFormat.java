@@ -0,0 +1,48 @@
+package com.github.sparkaligner;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+
+import java.io.IOException;
+
+/**
+ * Reads FASTQ files as whole 4-line records. The key is the byte offset of the record in the file,
+ * the value is the record itself with its lines separated by '\n'. For BGZF files the key is the virtual
+ * offset of the record, and the file is split at block boundaries.
+ */
+public class FASTQInputFormat extends FileInputFormat<LongWritable, Text> {
+
+    @Override
+    public RecordReader<LongWritable, Text> createRecordReader(InputSplit split, TaskAttemptContext context) {
+        return new FASTQRecordReader();
+    }
+
+    @Override
+    protected boolean isSplitable(JobContext context, Path file) {
+        return isSplittable(context.getConfiguration(), file);
+    }
+
+    // Plain text and BGZF files can be split. Other compressed files, such as those written by gzip, are read
+    // by a single task from their start.
+    public static boolean isSplittable(Configuration conf, Path file) {
+        CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(file);
+        if (codec == null) {
+            return true;
+        }
+
+        try {
+            return BGZFBlocks.isBGZF(file.getFileSystem(conf), file);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
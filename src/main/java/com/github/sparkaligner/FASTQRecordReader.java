@@ -0,0 +1,268 @@
+package com.github.sparkaligner;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.util.LineReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Emits the FASTQ records starting inside a split. Like Hadoop's LineRecordReader, every split except the
+ * first skips its first line, and a split keeps reading as long as the next record starts at or before its end.
+ * Splits from IndexedFASTQInputFormat instead start on a known record and hold a fixed number of records.
+ */
+public class FASTQRecordReader extends RecordReader<LongWritable, Text> {
+
+    private static final Log LOG = LogFactory.getLog(FASTQRecordReader.class);
+    private static final byte[] NEWLINE = {'\n'};
+
+    private long start;
+    private long end;
+    private long pos;
+    private LineReader in;
+    private BlockCompressedInputStream bgzf;
+
+    // Sliding window over the last four lines read, and the offsets they start at.
+    private Text[] lines = {new Text(), new Text(), new Text(), new Text()};
+    private long[] linePos = new long[4];
+    private boolean windowHasRecord = false;
+    private long recordsLeft = Long.MAX_VALUE;
+
+    private LongWritable key = new LongWritable();
+    private Text value = new Text();
+
+    @Override
+    public void initialize(InputSplit genericSplit, TaskAttemptContext context) throws IOException {
+        Configuration conf = context.getConfiguration();
+
+        if (genericSplit instanceof IndexedFASTQSplit) {
+            initializeIndexed((IndexedFASTQSplit) genericSplit, conf);
+            return;
+        }
+
+        FileSplit split = (FileSplit) genericSplit;
+        this.start = split.getStart();
+        this.end = this.start + split.getLength();
+
+        open(split.getPath(), conf, false);
+
+        if (this.start != 0) {
+            if (this.start >= this.end) {
+                // Possible with BGZF, when no block starts inside the split
+                this.recordsLeft = 0;
+                return;
+            }
+
+            // A record starting on the first line belongs to the previous split.
+            skipLine();
+        }
+
+        this.windowHasRecord = fillWindow() && seekRecordStart();
+    }
+
+    // The split starts on a known record boundary and holds a fixed number of records, so there is no
+    // boundary to search for.
+    private void initializeIndexed(IndexedFASTQSplit split, Configuration conf) throws IOException {
+        this.start = split.getCheckpointOffset();
+        this.end = Long.MAX_VALUE;
+        this.recordsLeft = split.getSkippedRecords() + split.getNumRecords();
+
+        if (this.recordsLeft == 0) {
+            return;
+        }
+
+        open(split.getPath(), conf, true);
+        if (!fillWindow() || !windowIsRecord()) {
+            throw new IOException("No FASTQ record at offset " + this.start + " of " + split.getPath());
+        }
+        this.windowHasRecord = true;
+
+        for (long i = 0; i < split.getSkippedRecords(); i++) {
+            if (!nextKeyValue()) {
+                throw new IOException("Unexpected end of " + split.getPath() + " while skipping to " + split);
+            }
+        }
+    }
+
+    // Opens the file positioned at this.start.
+    //
+    // BGZF files use virtual offsets, (block address << 16) | offset in the uncompressed block, as positions.
+    // Unless the split starts on a known record, its start and end are moved to the first block starting at or
+    // after them, so the records of a block at the split end go to the next split, except for a record starting
+    // the block, like a line starting at the end of a plain text split. Other compressed files are not splittable,
+    // so their split covers the whole stream.
+    private void open(Path file, Configuration conf, boolean startsOnRecord) throws IOException {
+        FileSystem fs = file.getFileSystem(conf);
+        FSDataInputStream fileIn = fs.open(file);
+
+        CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(file);
+        if (codec != null && BGZFBlocks.isBGZF(fs, file)) {
+            long fileLength = fs.getFileStatus(file).getLen();
+
+            if (!startsOnRecord) {
+                this.start = BGZFBlocks.nextBlockStart(fileIn, this.start, fileLength) << 16;
+                this.end = BGZFBlocks.nextBlockStart(fileIn, this.end, fileLength) << 16;
+            }
+
+            this.bgzf = new BlockCompressedInputStream(new HadoopSeekableStream(fileIn, fileLength, file));
+            this.bgzf.seek(this.start);
+
+        } else if (codec != null) {
+            InputStream decompressed = codec.createInputStream(fileIn);
+            IOUtils.skipFully(decompressed, this.start);
+            this.in = new LineReader(decompressed, conf);
+            this.end = Long.MAX_VALUE;
+
+        } else {
+            fileIn.seek(this.start);
+            this.in = new LineReader(fileIn, conf);
+        }
+
+        this.pos = this.start;
+    }
+
+    private boolean readLine(int index) throws IOException {
+        this.linePos[index] = this.pos;
+
+        if (this.bgzf != null) {
+            String line = this.bgzf.readLine();
+            if (line == null) {
+                return false;
+            }
+
+            this.lines[index].set(line);
+            this.pos = this.bgzf.getFilePointer();
+            return true;
+        }
+
+        int bytesRead = this.in.readLine(this.lines[index]);
+        this.pos += bytesRead;
+        return bytesRead > 0;
+    }
+
+    private void skipLine() throws IOException {
+        if (this.bgzf != null) {
+            this.bgzf.readLine();
+            this.pos = this.bgzf.getFilePointer();
+        } else {
+            this.pos += this.in.readLine(new Text());
+        }
+    }
+
+    private boolean fillWindow() throws IOException {
+        for (int i = 0; i < 4; i++) {
+            if (!readLine(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(Text line, char c) {
+        return line.getLength() > 0 && line.getBytes()[0] == c;
+    }
+
+    // A quality line may start with '@', but then the third line is the sequence of the next record,
+    // which never starts with '+'. This makes the header test unambiguous.
+    private boolean windowIsRecord() {
+        return startsWith(this.lines[0], '@') && startsWith(this.lines[2], '+');
+    }
+
+    // Slide the window one line at a time until it lines up with a record starting inside this split.
+    private boolean seekRecordStart() throws IOException {
+        while (!windowIsRecord()) {
+            if (this.linePos[0] > this.end) {
+                return false;
+            }
+
+            Text oldest = this.lines[0];
+            System.arraycopy(this.lines, 1, this.lines, 0, 3);
+            System.arraycopy(this.linePos, 1, this.linePos, 0, 3);
+            this.lines[3] = oldest;
+
+            if (!readLine(3)) {
+                return false;
+            }
+        }
+        return this.linePos[0] <= this.end;
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException {
+        if (this.recordsLeft == 0) {
+            return false;
+        }
+
+        if (!this.windowHasRecord) {
+            if (this.pos > this.end || !fillWindow()) {
+                return false;
+            }
+
+            if (!windowIsRecord()) {
+                LOG.warn("SparkAligner:: Malformed FASTQ record at offset " + this.linePos[0] + ", resynchronizing");
+                if (!seekRecordStart()) {
+                    return false;
+                }
+            }
+        }
+        this.windowHasRecord = false;
+        this.recordsLeft--;
+
+        this.key.set(this.linePos[0]);
+        this.value.clear();
+        for (int i = 0; i < 4; i++) {
+            this.value.append(this.lines[i].getBytes(), 0, this.lines[i].getLength());
+            if (i < 3) {
+                this.value.append(NEWLINE, 0, 1);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public LongWritable getCurrentKey() {
+        return this.key;
+    }
+
+    @Override
+    public Text getCurrentValue() {
+        return this.value;
+    }
+
+    @Override
+    public float getProgress() {
+        if (this.end == Long.MAX_VALUE || this.start >= this.end) {
+            return 0.0f;
+        }
+
+        // Compare compressed addresses for BGZF files
+        int shift = this.bgzf != null ? 16 : 0;
+        return Math.min(1.0f, ((this.pos >>> shift) - (this.start >>> shift))
+                / (float) ((this.end >>> shift) - (this.start >>> shift)));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.in != null) {
+            this.in.close();
+        }
+        if (this.bgzf != null) {
+            this.bgzf.close();
+        }
+    }
+}
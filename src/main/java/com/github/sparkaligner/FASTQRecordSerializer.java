@@ -0,0 +1,98 @@
+package com.github.sparkaligner;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+import java.util.Arrays;
+
+/**
+ * Kryo serializer for FASTQRecord. When packBases is set, sequences made only of A, C, G and T are packed
+ * four bases to a byte. Other sequences, such as the ones with an N, are written as they are.
+ */
+public class FASTQRecordSerializer extends Serializer<FASTQRecord> {
+
+    private static final byte RAW = 0;
+    private static final byte PACKED = 1;
+
+    private static final byte[] BASES = {'A', 'C', 'G', 'T'};
+    private static final byte[] BASE_CODES = new byte[256];
+
+    static {
+        Arrays.fill(BASE_CODES, (byte) -1);
+        for (int i = 0; i < BASES.length; i++) {
+            BASE_CODES[BASES[i]] = (byte) i;
+        }
+    }
+
+    private final boolean packBases;
+
+    public FASTQRecordSerializer(boolean packBases) {
+        this.packBases = packBases;
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output, FASTQRecord record) {
+        writeBytes(output, record.getName());
+        writeSequence(output, record.getSequence());
+        // The quality is as long as the sequence, which FASTQRecord.fromText checks
+        output.writeBytes(record.getQuality());
+    }
+
+    @Override
+    public FASTQRecord read(Kryo kryo, Input input, Class<FASTQRecord> type) {
+        byte[] name = input.readBytes(input.readVarInt(true));
+        byte[] sequence = readSequence(input);
+        byte[] quality = input.readBytes(sequence.length);
+
+        return new FASTQRecord(name, sequence, quality);
+    }
+
+    private static void writeBytes(Output output, byte[] bytes) {
+        output.writeVarInt(bytes.length, true);
+        output.writeBytes(bytes);
+    }
+
+    private void writeSequence(Output output, byte[] sequence) {
+        if (!this.packBases || !isPackable(sequence)) {
+            output.writeByte(RAW);
+            writeBytes(output, sequence);
+            return;
+        }
+
+        output.writeByte(PACKED);
+        output.writeVarInt(sequence.length, true);
+
+        byte[] packed = new byte[(sequence.length + 3) / 4];
+        for (int i = 0; i < sequence.length; i++) {
+            packed[i / 4] |= BASE_CODES[sequence[i]] << ((i % 4) * 2);
+        }
+        output.writeBytes(packed);
+    }
+
+    private static byte[] readSequence(Input input) {
+        byte encoding = input.readByte();
+        int length = input.readVarInt(true);
+
+        if (encoding == RAW) {
+            return input.readBytes(length);
+        }
+
+        byte[] packed = input.readBytes((length + 3) / 4);
+        byte[] sequence = new byte[length];
+        for (int i = 0; i < length; i++) {
+            sequence[i] = BASES[(packed[i / 4] >> ((i % 4) * 2)) & 3];
+        }
+        return sequence;
+    }
+
+    private static boolean isPackable(byte[] sequence) {
+        for (byte base : sequence) {
+            if (base < 0 || BASE_CODES[base] < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
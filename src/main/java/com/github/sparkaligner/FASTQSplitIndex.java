@@ -0,0 +1,131 @@
+package com.github.sparkaligner;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.api.java.JavaSparkContext;
+import scala.Tuple2;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Sparse index from record number to byte offset for a FASTQ file. It is built in one pass over the
+ * file without a shuffle, and lets a split start at any record number by seeking to the closest
+ * checkpoint and skipping at most CHECKPOINT_INTERVAL records.
+ */
+public class FASTQSplitIndex implements Serializable {
+
+    private static final int CHECKPOINT_INTERVAL = 4096;
+
+    private final long[] checkpointRecords;
+    private final long[] checkpointOffsets;
+    private final long numRecords;
+
+    private FASTQSplitIndex(long[] checkpointRecords, long[] checkpointOffsets, long numRecords) {
+        this.checkpointRecords = checkpointRecords;
+        this.checkpointOffsets = checkpointOffsets;
+        this.numRecords = numRecords;
+    }
+
+    public static FASTQSplitIndex build(JavaSparkContext ctx, File inputFastq) {
+        return build(ctx, Collections.singletonList(inputFastq)).get(0);
+    }
+
+    // Indexes all the files in a single job.
+    public static List<FASTQSplitIndex> build(JavaSparkContext ctx, List<File> inputFastqs) {
+        List<JavaRDD<long[]>> summaryRDDs = new ArrayList<>();
+        for (int i = 0; i < inputFastqs.size(); i++) {
+            summaryRDDs.add(summarizeSplits(ctx, inputFastqs.get(i), i));
+        }
+
+        List<long[]> splitSummaries = ctx.union(summaryRDDs.get(0), summaryRDDs.subList(1, summaryRDDs.size())).collect();
+
+        List<FASTQSplitIndex> indices = new ArrayList<>();
+        for (int i = 0; i < inputFastqs.size(); i++) {
+            indices.add(fromSplitSummaries(splitSummaries, i));
+        }
+        return indices;
+    }
+
+    // Each split reports the file it belongs to and its record count, followed by the offset of every
+    // CHECKPOINT_INTERVAL'th record.
+    private static JavaRDD<long[]> summarizeSplits(JavaSparkContext ctx, File inputFastq, long fileNum) {
+        return ctx
+                .newAPIHadoopFile(inputFastq.getPath(), FASTQInputFormat.class, LongWritable.class, Text.class,
+                        ctx.hadoopConfiguration())
+                .mapPartitions((Iterator<Tuple2<LongWritable, Text>> records) -> {
+                    ArrayList<Long> offsets = new ArrayList<>();
+                    long count = 0;
+
+                    while (records.hasNext()) {
+                        long offset = records.next()._1().get();
+                        if (count % CHECKPOINT_INTERVAL == 0) {
+                            offsets.add(offset);
+                        }
+                        count++;
+                    }
+
+                    long[] summary = new long[offsets.size() + 2];
+                    summary[0] = fileNum;
+                    summary[1] = count;
+                    for (int i = 0; i < offsets.size(); i++) {
+                        summary[i + 2] = offsets.get(i);
+                    }
+                    return Collections.singletonList(summary).iterator();
+                });
+    }
+
+    // The summaries of a file are in split order, as the union keeps the order of the partitions.
+    private static FASTQSplitIndex fromSplitSummaries(List<long[]> splitSummaries, long fileNum) {
+        int numCheckpoints = 0;
+        for (long[] summary : splitSummaries) {
+            if (summary[0] == fileNum) {
+                numCheckpoints += summary.length - 2;
+            }
+        }
+
+        long[] checkpointRecords = new long[numCheckpoints];
+        long[] checkpointOffsets = new long[numCheckpoints];
+        long firstRecordInSplit = 0;
+        int checkpoint = 0;
+
+        for (long[] summary : splitSummaries) {
+            if (summary[0] != fileNum) {
+                continue;
+            }
+
+            for (int i = 2; i < summary.length; i++) {
+                checkpointRecords[checkpoint] = firstRecordInSplit + (long) (i - 2) * CHECKPOINT_INTERVAL;
+                checkpointOffsets[checkpoint] = summary[i];
+                checkpoint++;
+            }
+            firstRecordInSplit += summary[1];
+        }
+
+        return new FASTQSplitIndex(checkpointRecords, checkpointOffsets, firstRecordInSplit);
+    }
+
+    public long getNumRecords() {
+        return this.numRecords;
+    }
+
+    // Index of the last checkpoint at or before the given record.
+    private int floorCheckpoint(long record) {
+        int found = Arrays.binarySearch(this.checkpointRecords, record);
+        return found >= 0 ? found : -found - 2;
+    }
+
+    public long getCheckpointOffset(long record) {
+        return this.checkpointOffsets[floorCheckpoint(record)];
+    }
+
+    public long getRecordsAfterCheckpoint(long record) {
+        return record - this.checkpointRecords[floorCheckpoint(record)];
+    }
+}
@@ -0,0 +1,11 @@
+package com.github.sparkaligner;
+
+/**
+ * An aligner that runs as a process on the reads of a partition written to temporary FASTQ files. The SAM output
+ * goes to the output file of the options.
+ */
+public interface FileAligner {
+
+    // fastqFileName2 is null for single-end reads. Throws if the aligner fails, so its output is not kept.
+    void alignReads(String fastqFileName1, String fastqFileName2);
+}
@@ -0,0 +1,63 @@
+package com.github.sparkaligner;
+
+import htsjdk.samtools.seekablestream.SeekableStream;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+
+/**
+ * Lets htsjdk seek in files opened through the Hadoop FileSystem API.
+ */
+class HadoopSeekableStream extends SeekableStream {
+
+    private final FSDataInputStream in;
+    private final long length;
+    private final Path file;
+
+    HadoopSeekableStream(FSDataInputStream in, long length, Path file) {
+        this.in = in;
+        this.length = length;
+        this.file = file;
+    }
+
+    @Override
+    public long length() {
+        return this.length;
+    }
+
+    @Override
+    public long position() throws IOException {
+        return this.in.getPos();
+    }
+
+    @Override
+    public void seek(long position) throws IOException {
+        this.in.seek(position);
+    }
+
+    @Override
+    public int read() throws IOException {
+        return this.in.read();
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        return this.in.read(buffer, offset, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.in.close();
+    }
+
+    @Override
+    public boolean eof() throws IOException {
+        return this.in.getPos() >= this.length;
+    }
+
+    @Override
+    public String getSource() {
+        return this.file.toString();
+    }
+}
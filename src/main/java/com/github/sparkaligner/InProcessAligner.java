@@ -0,0 +1,22 @@
+package com.github.sparkaligner;
+
+import java.util.List;
+
+/**
+ * An aligner running inside the executor JVM. It is given the reads of a partition in batches, and neither
+ * files nor processes are used.
+ */
+public interface InProcessAligner {
+
+    // The header of the SAM records alignBatch returns.
+    String getSamHeader();
+
+    // The newline-terminated SAM lines of every read of the batch, in the order of the reads. The mates of
+    // paired reads come one after the other.
+    String[] alignBatch(List<FASTQRecord> reads, boolean isPairedReads);
+
+    // The bases given to alignBatch at a time. bwa mem aligns 10M bases per thread at a time.
+    default long getBatchBases() {
+        return 10000000L * MiscUtils.getTaskCpus();
+    }
+}
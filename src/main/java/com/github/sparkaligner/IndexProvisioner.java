@@ -0,0 +1,327 @@
+package com.github.sparkaligner;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.spark.SparkConf;
+import org.apache.spark.SparkEnv;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Copies the bwa index from -R, which can be any URI Hadoop supports, to the local disk of the node once, so the
+ * aligner processes of every executor on the node read the same local files and share them in the page cache
+ * instead of each reading the index over the network.
+ *
+ * The copies are kept in spark.sparkaligner.indexCache.dir, a folder per index named after its location, sizes and
+ * modification times, so a changed index is copied again. Executors on the node take turns through a file lock, so
+ * the first one copies the index while the others wait and then use the copy. The MD5 of every file is recorded in
+ * the index.md5 file of the copy, and checked against the <prefix>.md5 file next to the index if there is one, as
+ * written by md5sum. Each executor checks the copy against index.md5 once before using it, which also loads it into
+ * the page cache, outside of the lock so the executors of a node check it in parallel. Only the
+ * spark.sparkaligner.indexCache.size most recently used copies are kept, and never a copy an executor uses: each
+ * executor holds a shared lock on the copies it aligned against, which eviction has to lock exclusively.
+ */
+class IndexProvisioner {
+
+    private static final Log LOG = LogFactory.getLog(IndexProvisioner.class);
+
+    private static final String[] EXTENSIONS = {".amb", ".ann", ".bwt", ".pac", ".sa", ".alt"};
+    private static final String MANIFEST_FILE = "index.md5";
+    private static final String LOCK_FILE = ".lock";
+
+    // The local copies checked by this executor, by -R
+    private static final Map<String, String> provisioned = new HashMap<>();
+    // The shared locks this executor holds on the copies it uses, by copy folder name
+    private static final Map<String, FileLock> inUse = new HashMap<>();
+
+    // -R without a scheme is a path on the local filesystem, as when the index is not copied.
+    static Path sourcePath(String indexPath) {
+        if (indexPath.matches("^[a-zA-Z][a-zA-Z0-9+.-]*://.*")) {
+            return new Path(indexPath);
+        }
+        return new Path(new File(indexPath).getAbsoluteFile().toURI());
+    }
+
+    // The prefix of the local copy of the index, which is copied first if the node does not have it yet.
+    static String provision(String indexPath) throws IOException {
+        SparkEnv env = SparkEnv.get();
+        SparkConf conf = env != null ? env.conf() : new SparkConf();
+
+        File cacheRoot = new File(conf.get("spark.sparkaligner.indexCache.dir",
+                new File(System.getProperty("java.io.tmpdir"), "sparkaligner-index").getPath()));
+        int cacheSize = conf.getInt("spark.sparkaligner.indexCache.size", 3);
+
+        return provision(indexPath, ResultsOutput.taskConfiguration(), cacheRoot, cacheSize);
+    }
+
+    static synchronized String provision(String indexPath, Configuration conf, File cacheRoot, int cacheSize)
+            throws IOException {
+        String localPrefix = provisioned.get(indexPath);
+        if (localPrefix != null) {
+            // The modification time of the manifest orders the copies by their last use, and can not be set once
+            // the copy is gone
+            File manifest = new File(new File(localPrefix).getParentFile(), MANIFEST_FILE);
+            if (manifest.setLastModified(System.currentTimeMillis())) {
+                return localPrefix;
+            }
+
+            LOG.warn("SparkAligner:: The local copy of " + indexPath + " is gone, copying the index again");
+            provisioned.remove(indexPath);
+        }
+
+        Path source = sourcePath(indexPath);
+        FileSystem fs = source.getFileSystem(conf);
+        List<FileStatus> files = indexFiles(fs, source);
+        if (files.isEmpty()) {
+            throw new FileNotFoundException("No bwa index files found at " + indexPath);
+        }
+
+        File cacheDir = new File(cacheRoot, cacheKey(source, files));
+        File manifest = new File(cacheDir, MANIFEST_FILE);
+        cacheRoot.mkdirs();
+
+        boolean copied = false;
+        try (FileChannel lockChannel = openLockFile(new File(cacheRoot, LOCK_FILE));
+             FileLock lock = lockChannel.lock()) {
+
+            if (!manifest.isFile()) {
+                copy(fs, source, files, cacheDir);
+                copied = true;
+            }
+
+            // Taken before the lock of the cache is released, so the copy can not be evicted in between
+            holdCopy(cacheRoot, cacheDir);
+            manifest.setLastModified(System.currentTimeMillis());
+            evict(cacheRoot, cacheDir, cacheSize);
+        }
+
+        if (!copied && !verify(cacheDir, manifest)) {
+            try (FileChannel lockChannel = openLockFile(new File(cacheRoot, LOCK_FILE));
+                 FileLock lock = lockChannel.lock()) {
+                copy(fs, source, files, cacheDir);
+            }
+        }
+
+        localPrefix = new File(cacheDir, source.getName()).getPath();
+        provisioned.put(indexPath, localPrefix);
+        return localPrefix;
+    }
+
+    private static FileChannel openLockFile(File lockFile) throws IOException {
+        return FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+
+    // Holds a shared lock on the copy for as long as the executor runs.
+    private static void holdCopy(File cacheRoot, File cacheDir) throws IOException {
+        if (inUse.containsKey(cacheDir.getName())) {
+            return;
+        }
+
+        FileChannel channel = openLockFile(new File(cacheRoot, cacheDir.getName() + LOCK_FILE));
+        inUse.put(cacheDir.getName(), channel.lock(0, Long.MAX_VALUE, true));
+    }
+
+    private static List<FileStatus> indexFiles(FileSystem fs, Path source) throws IOException {
+        List<FileStatus> files = new ArrayList<>();
+        for (String extension : EXTENSIONS) {
+            Path file = source.suffix(extension);
+            if (fs.exists(file)) {
+                files.add(fs.getFileStatus(file));
+            }
+        }
+        return files;
+    }
+
+    private static String cacheKey(Path source, List<FileStatus> files) {
+        StringBuilder key = new StringBuilder(source.toUri().toString());
+        for (FileStatus file : files) {
+            key.append('\n').append(file.getPath().getName()).append(' ').append(file.getLen())
+                    .append(' ').append(file.getModificationTime());
+        }
+
+        byte[] digest = digest("SHA-256").digest(key.toString().getBytes(StandardCharsets.UTF_8));
+        return source.getName() + "-" + hex(digest).substring(0, 16);
+    }
+
+    // Copies the index into a temporary folder, whose files are moved into place once every file is checked. A
+    // corrupt copy is copied again while other executors may be reading it, so its files are never deleted: each one
+    // is atomically replaced, and the aligners that opened the old file keep reading it. The manifest is moved last,
+    // as it marks the copy complete.
+    private static void copy(FileSystem fs, Path source, List<FileStatus> files, File cacheDir) throws IOException {
+        LOG.info("SparkAligner:: Copying the index " + source + " to " + cacheDir);
+
+        Map<String, String> expectedChecksums = readChecksums(fs, source.suffix(".md5"));
+        File tmpDir = new File(cacheDir.getPath() + ".tmp");
+        deleteRecursively(tmpDir);
+        tmpDir.mkdirs();
+
+        StringBuilder manifest = new StringBuilder();
+        for (FileStatus file : files) {
+            String name = file.getPath().getName();
+            File localFile = new File(tmpDir, name);
+
+            MessageDigest md5 = digest("MD5");
+            try (InputStream in = new DigestInputStream(fs.open(file.getPath()), md5);
+                 OutputStream out = Files.newOutputStream(localFile.toPath())) {
+                IOUtils.copyBytes(in, out, 1 << 20, false);
+            }
+            String checksum = hex(md5.digest());
+
+            if (localFile.length() != file.getLen()) {
+                throw new IOException("Copied " + localFile.length() + " of the " + file.getLen() + " bytes of "
+                        + file.getPath());
+            }
+            if (expectedChecksums.containsKey(name) && !expectedChecksums.get(name).equals(checksum)) {
+                throw new IOException("The MD5 of the copy of " + file.getPath() + " is " + checksum + ", not "
+                        + expectedChecksums.get(name));
+            }
+
+            manifest.append(checksum).append("  ").append(name).append('\n');
+        }
+
+        Files.write(new File(tmpDir, MANIFEST_FILE).toPath(), manifest.toString().getBytes(StandardCharsets.UTF_8));
+
+        cacheDir.mkdirs();
+        for (FileStatus file : files) {
+            replace(new File(tmpDir, file.getPath().getName()), cacheDir);
+        }
+        replace(new File(tmpDir, MANIFEST_FILE), cacheDir);
+        deleteRecursively(tmpDir);
+    }
+
+    private static void replace(File file, File dir) throws IOException {
+        Files.move(file.toPath(), new File(dir, file.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // The checksums of an md5sum file, by file name, or none if there is no such file.
+    private static Map<String, String> readChecksums(FileSystem fs, Path checksumFile) throws IOException {
+        Map<String, String> checksums = new HashMap<>();
+        if (!fs.exists(checksumFile)) {
+            return checksums;
+        }
+
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(fs.open(checksumFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.trim().split("\\s+\\*?", 2);
+                if (fields.length == 2) {
+                    checksums.put(new File(fields[1]).getName(), fields[0].toLowerCase());
+                }
+            }
+        }
+        return checksums;
+    }
+
+    private static boolean verify(File cacheDir, File manifest) throws IOException {
+        Map<String, String> checksums = readChecksums(FileSystem.getLocal(new Configuration()).getRaw(),
+                new Path(manifest.toURI()));
+
+        for (Map.Entry<String, String> checksum : checksums.entrySet()) {
+            File localFile = new File(cacheDir, checksum.getKey());
+            MessageDigest md5 = digest("MD5");
+
+            try (InputStream in = new DigestInputStream(Files.newInputStream(localFile.toPath()), md5)) {
+                byte[] buffer = new byte[1 << 20];
+                while (in.read(buffer) != -1) {
+                    // Reading updates the digest
+                }
+            } catch (IOException e) {
+                LOG.warn("SparkAligner:: Could not read " + localFile + ", copying the index again");
+                return false;
+            }
+
+            if (!hex(md5.digest()).equals(checksum.getValue())) {
+                LOG.warn("SparkAligner:: " + localFile + " is corrupt, copying the index again");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Deletes the least recently used copies beyond cacheSize, but not the ones an executor holds a lock on.
+    private static void evict(File cacheRoot, File current, int cacheSize) throws IOException {
+        File[] copies = cacheRoot.listFiles(file ->
+                new File(file, MANIFEST_FILE).isFile() && !file.getName().endsWith(".tmp"));
+        if (copies == null || copies.length <= cacheSize) {
+            return;
+        }
+
+        Arrays.sort(copies, Comparator.comparingLong((File copy) -> new File(copy, MANIFEST_FILE).lastModified())
+                .reversed());
+        for (int i = Math.max(cacheSize, 1); i < copies.length; i++) {
+            // Closing another channel on a file would release the locks this executor holds on it
+            if (copies[i].equals(current) || inUse.containsKey(copies[i].getName())) {
+                continue;
+            }
+
+            File copyLockFile = new File(cacheRoot, copies[i].getName() + LOCK_FILE);
+            try (FileChannel channel = openLockFile(copyLockFile);
+                 FileLock lock = channel.tryLock()) {
+                if (lock == null) {
+                    LOG.info("SparkAligner:: Keeping the index copy " + copies[i] + ", which is in use");
+                    continue;
+                }
+
+                LOG.info("SparkAligner:: Deleting the least recently used index copy " + copies[i]);
+                deleteRecursively(copies[i]);
+            }
+            copyLockFile.delete();
+        }
+    }
+
+    private static void deleteRecursively(File dir) throws IOException {
+        if (!dir.exists()) {
+            return;
+        }
+        try (Stream<java.nio.file.Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(java.nio.file.Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private static MessageDigest digest(String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support MD5 and SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.sparkaligner;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a FASTQ file into a given number of partitions holding the same number of records. Two files
+ * with the same number of records, such as the mates of paired-end reads, are split identically, so
+ * partition N of one file holds the mates of partition N of the other.
+ */
+public class IndexedFASTQInputFormat extends InputFormat<LongWritable, Text> {
+
+    private static final String INPUT_PATH = "sparkaligner.fastq.indexed.path";
+    private static final String INPUT_SPLITS = "sparkaligner.fastq.indexed.splits";
+
+    public static void setInput(Configuration conf, File inputFastq, FASTQSplitIndex index, int numPartitions) {
+        long numRecords = index.getNumRecords();
+        String[] splits = new String[numPartitions];
+
+        for (int i = 0; i < numPartitions; i++) {
+            long firstRecord = numRecords * i / numPartitions;
+            long lastRecord = numRecords * (i + 1) / numPartitions;
+
+            if (firstRecord == numRecords) {
+                splits[i] = "0:0:0";
+            } else {
+                splits[i] = index.getCheckpointOffset(firstRecord) + ":"
+                        + index.getRecordsAfterCheckpoint(firstRecord) + ":"
+                        + (lastRecord - firstRecord);
+            }
+        }
+
+        conf.set(INPUT_PATH, inputFastq.getPath());
+        conf.setStrings(INPUT_SPLITS, splits);
+    }
+
+    @Override
+    public List<InputSplit> getSplits(JobContext context) throws IOException {
+        Configuration conf = context.getConfiguration();
+        Path file = new Path(conf.get(INPUT_PATH));
+        FileSystem fs = file.getFileSystem(conf);
+        FileStatus status = fs.getFileStatus(file);
+
+        // The offsets of a BGZF file are virtual, holding the block address in their upper 48 bits
+        int addressShift = BGZFBlocks.isBGZF(fs, file) ? 16 : 0;
+
+        List<InputSplit> splits = new ArrayList<>();
+        for (String split : conf.getStrings(INPUT_SPLITS)) {
+            String[] fields = split.split(":");
+            long checkpointOffset = Long.parseLong(fields[0]);
+
+            BlockLocation[] blocks = fs.getFileBlockLocations(status, checkpointOffset >>> addressShift, 1);
+            String[] hosts = blocks.length > 0 ? blocks[0].getHosts() : null;
+
+            splits.add(new IndexedFASTQSplit(file, checkpointOffset, Long.parseLong(fields[1]),
+                    Long.parseLong(fields[2]), hosts));
+        }
+        return splits;
+    }
+
+    @Override
+    public RecordReader<LongWritable, Text> createRecordReader(InputSplit split, TaskAttemptContext context) {
+        return new FASTQRecordReader();
+    }
+}
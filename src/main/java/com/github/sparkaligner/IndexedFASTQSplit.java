@@ -0,0 +1,82 @@
+package com.github.sparkaligner;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.InputSplit;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A split holding a fixed range of record numbers of a FASTQ file. It starts at a checkpoint offset
+ * from FASTQSplitIndex, skips the records before the first one it holds, and then reads numRecords records.
+ */
+public class IndexedFASTQSplit extends InputSplit implements Writable {
+
+    private Path file;
+    private long checkpointOffset;
+    private long skippedRecords;
+    private long numRecords;
+    private String[] hosts;
+
+    public IndexedFASTQSplit() {
+    }
+
+    public IndexedFASTQSplit(Path file, long checkpointOffset, long skippedRecords, long numRecords, String[] hosts) {
+        this.file = file;
+        this.checkpointOffset = checkpointOffset;
+        this.skippedRecords = skippedRecords;
+        this.numRecords = numRecords;
+        this.hosts = hosts;
+    }
+
+    public Path getPath() {
+        return this.file;
+    }
+
+    public long getCheckpointOffset() {
+        return this.checkpointOffset;
+    }
+
+    public long getSkippedRecords() {
+        return this.skippedRecords;
+    }
+
+    public long getNumRecords() {
+        return this.numRecords;
+    }
+
+    @Override
+    public long getLength() {
+        return this.numRecords;
+    }
+
+    @Override
+    public String[] getLocations() {
+        return this.hosts == null ? new String[]{} : this.hosts;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        Text.writeString(out, this.file.toString());
+        out.writeLong(this.checkpointOffset);
+        out.writeLong(this.skippedRecords);
+        out.writeLong(this.numRecords);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        this.file = new Path(Text.readString(in));
+        this.checkpointOffset = in.readLong();
+        this.skippedRecords = in.readLong();
+        this.numRecords = in.readLong();
+        this.hosts = null;
+    }
+
+    @Override
+    public String toString() {
+        return this.file + "@" + this.checkpointOffset + "+" + this.skippedRecords + ":" + this.numRecords;
+    }
+}
@@ -1,52 +1,76 @@
 package com.github.sparkaligner;
 
+import org.apache.spark.SparkEnv;
+
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 public class MiscUtils {
 
+    // Path of every binary extracted by this JVM, by resource path
+    private static final ConcurrentHashMap<String, String> extractedExecutables = new ConcurrentHashMap<>();
+
     public static String extractExecutable(String resourceFilePath) {
 
+        if (resourceFilePath == null)
+            return null;
+
         if (!resourceFilePath.startsWith("/")) {
             resourceFilePath = "/" + resourceFilePath;
         }
 
-        if (resourceFilePath == null)
-            return null;
+        // Concurrent tasks asking for the same binary wait for the first extraction instead of repeating it
+        return extractedExecutables.computeIfAbsent(resourceFilePath, MiscUtils::extractToCache);
+    }
 
+    private static String extractToCache(String resourceFilePath) {
         try {
-            // Read the file we're looking for
-            InputStream fileStream = MiscUtils.class.getResourceAsStream(resourceFilePath);
+            byte[] content;
 
-            // Was the resource found?
-            if (fileStream == null)
-                return null;
-
-            // Grab the file name
-            String[] chopped = resourceFilePath.split("\\/");
-            String fileName = chopped[chopped.length-1];
+            // Read the file we're looking for
+            try (InputStream fileStream = MiscUtils.class.getResourceAsStream(resourceFilePath)) {
 
-            // Create our temp file
-            File tempFile = File.createTempFile("SparkAligner" + System.nanoTime(), fileName);
+                // Was the resource found?
+                if (fileStream == null)
+                    return null;
 
-            // Delete the file on VM exit
-            tempFile.deleteOnExit();
+                ByteArrayOutputStream contentStream = new ByteArrayOutputStream();
+                byte[] buffer = new byte[1 << 16];
+                int len;
+                while ((len = fileStream.read(buffer)) != -1) {
+                    contentStream.write(buffer, 0, len);
+                }
+                content = contentStream.toByteArray();
+            }
 
-            OutputStream out = new FileOutputStream(tempFile);
+            // The cache directory is named after the checksum of the binary, so every executor on the node
+            // shares one copy, and a new build of the binary never picks up an old one.
+            String checksum = sha256Hex(content);
+            String fileName = resourceFilePath.substring(resourceFilePath.lastIndexOf('/') + 1);
+            File cacheDir = new File(System.getProperty("java.io.tmpdir"), "SparkAligner-" + checksum);
+            File cachedFile = new File(cacheDir, fileName);
 
-            // Write the file to the temp file
-            byte[] buffer = new byte[1024];
-            int len = fileStream.read(buffer);
-            while (len != -1) {
-                out.write(buffer, 0, len);
-                len = fileStream.read(buffer);
+            if (cachedFile.isFile() && cachedFile.canExecute()
+                    && checksum.equals(sha256Hex(Files.readAllBytes(cachedFile.toPath())))) {
+                return cachedFile.getAbsolutePath();
             }
 
-            fileStream.close();
-            out.close();
-
+            // Write to a temporary file and move it into place, so no process ever runs a partially written binary
+            cacheDir.mkdirs();
+            File tempFile = File.createTempFile(fileName, ".tmp", cacheDir);
+            Files.write(tempFile.toPath(), content);
             tempFile.setExecutable(true);
-            return tempFile.getAbsolutePath();
+            Files.move(tempFile.toPath(), cachedFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            return cachedFile.getAbsolutePath();
 
         } catch (IOException e) {
             e.printStackTrace();
@@ -54,8 +78,31 @@ public class MiscUtils {
         }
     }
 
+    private static String sha256Hex(byte[] content) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(content)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
     public static int executeResourceBinary(String binaryName, ArrayList<String> arguments) {
-        String pathToUnpackedBinary = extractExecutable(binaryName);
+        return executeResourceBinary(binaryName, arguments, null, null);
+    }
+
+    public static int executeResourceBinary(String binaryName, ArrayList<String> arguments, ReadsWriter input) {
+        return executeResourceBinary(binaryName, arguments, input, null);
+    }
+
+    // Every line the process writes to stderr is passed to errorLines, while the process runs.
+    public static int executeResourceBinary(String binaryName, ArrayList<String> arguments, ReadsWriter input,
+                                            Consumer<String> errorLines) {
+        String pathToUnpackedBinary = findExecutable(binaryName);
 
         if (pathToUnpackedBinary == null) {
             System.err.println("Could not find binary: " + binaryName);
@@ -64,9 +111,6 @@ public class MiscUtils {
 
         arguments.add(0, pathToUnpackedBinary);
 
-        int numTries = 0;
-        int maxRetries = 5;
-
         ProcessBuilder builder = new ProcessBuilder(arguments);
         if (arguments.get(arguments.size()-2).equals(">")) {
             String outputFile = arguments.get(arguments.size()-1);
@@ -74,37 +118,125 @@ public class MiscUtils {
 
             arguments.remove(arguments.size()-2);
             arguments.remove(arguments.size()-1);
+        } else {
+            // Nothing reads stdout, so a full pipe would stall the process
+            builder.redirectOutput(ProcessBuilder.Redirect.INHERIT);
         }
 
+        int numTries = 0;
+        int maxRetries = 5;
+
+        // Starting the process is retried, as a binary that was just extracted can be briefly busy. Nothing
+        // has been written to its input yet at that point.
         Process p;
         while (true) {
             try {
                 p = builder.start();
-                p.waitFor();
+                break;
+            } catch (IOException e) {
+                e.printStackTrace();
+                if (++numTries == maxRetries) return -2;
+            }
+        }
 
-                if (p.exitValue() != 0) {
-                    System.err.println(binaryName + " exited with error code: " + p.exitValue());
-                    InputStream errorStream = p.getErrorStream();
-                    BufferedReader errorStreamReader = new BufferedReader(new InputStreamReader(errorStream));
+        return waitForProcess(binaryName, p, input, errorLines);
+    }
 
-                    String currLine = null;
-                    while ((currLine = errorStreamReader.readLine()) != null) {
-                        System.out.println(currLine);
+    // A binary can be replaced by the one at spark.sparkaligner.binary.<name>, set in the Spark configuration or
+    // as a system property, such as a stand-in aligner for benchmarks.
+    public static String findExecutable(String binaryName) {
+        String key = "spark.sparkaligner.binary." + binaryName;
+
+        SparkEnv env = SparkEnv.get();
+        String path = env != null ? env.conf().get(key, null) : null;
+        if (path == null) {
+            path = System.getProperty(key);
+        }
+
+        return path != null ? path : extractExecutable(binaryName);
+    }
+
+    private static int waitForProcess(String binaryName, Process p, ReadsWriter input, Consumer<String> errorLines) {
+        // Drain stderr while the process runs, otherwise a full pipe stalls it. Only the last lines are kept
+        // for the error report.
+        ArrayDeque<String> lastErrorLines = new ArrayDeque<>();
+        Thread errorDrainer = new Thread(() -> {
+            try (BufferedReader errorStreamReader = new BufferedReader(new InputStreamReader(p.getErrorStream()))) {
+                String currLine;
+                while ((currLine = errorStreamReader.readLine()) != null) {
+                    if (errorLines != null) {
+                        errorLines.accept(currLine);
                     }
 
-                    return p.exitValue();
+                    synchronized (lastErrorLines) {
+                        if (lastErrorLines.size() == 100) {
+                            lastErrorLines.removeFirst();
+                        }
+                        lastErrorLines.addLast(currLine);
+                    }
                 }
-                break;
             } catch (IOException e) {
                 e.printStackTrace();
-                if (++numTries == maxRetries) return -2;
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-                if (++numTries == maxRetries) return -3;
             }
+        }, binaryName + "-stderr");
+        errorDrainer.setDaemon(true);
+        errorDrainer.start();
+
+        try {
+            IOException writeError = null;
+            if (input != null) {
+                try (OutputStream processInput = new BufferedOutputStream(p.getOutputStream(), 1 << 16)) {
+                    input.write(processInput);
+                } catch (IOException e) {
+                    // Most likely a broken pipe because the process died, which is reported below. Otherwise the
+                    // process must not go on with the reads written so far.
+                    writeError = e;
+                    p.destroy();
+                } catch (RuntimeException e) {
+                    p.destroy();
+                    throw e;
+                }
+            } else {
+                p.getOutputStream().close();
+            }
+
+            int exitValue = p.waitFor();
+            errorDrainer.join();
+
+            if (exitValue != 0) {
+                System.err.println(binaryName + " exited with error code: " + exitValue);
+                synchronized (lastErrorLines) {
+                    for (String currLine : lastErrorLines) {
+                        System.out.println(currLine);
+                    }
+                }
+                return exitValue;
+            }
+
+            if (writeError != null) {
+                writeError.printStackTrace();
+                return -2;
+            }
+            return 0;
+
+        } catch (IOException e) {
+            e.printStackTrace();
+            return -2;
+        } catch (InterruptedException e) {
+            e.printStackTrace();
+            p.destroy();
+            Thread.currentThread().interrupt();
+            return -3;
         }
+    }
 
-        return 0;
+    // The number of CPUs Spark reserves for each task, or 1 outside of an executor
+    public static int getTaskCpus() {
+        SparkEnv env = SparkEnv.get();
+        if (env == null) {
+            return 1;
+        }
+        return Math.max(1, env.conf().getInt("spark.task.cpus", 1));
     }
 
     public static ArrayList<File> getFilesInFolder(String pathToFolder) {
@@ -122,7 +254,8 @@ public class MiscUtils {
                         fastqFiles.addAll(filesInDir);
                     }
                 }
-                else if (fileName.endsWith("fastq") || fileName.endsWith("fq")) {
+                else if (fileName.endsWith("fastq") || fileName.endsWith("fq")
+                        || fileName.endsWith("fastq.gz") || fileName.endsWith("fq.gz")) {
                     fastqFiles.add(file);
                 }
             }
@@ -134,6 +267,10 @@ public class MiscUtils {
     }
 
     public static String removeExtenstion(String filepath) {
+        if (filepath.endsWith(".gz")) {
+            filepath = filepath.substring(0, filepath.length() - 3);
+        }
+
         String ext = "fastq";
         if (filepath.endsWith("fq")) {
             ext = "fq";
@@ -5,17 +5,48 @@ import org.apache.spark.api.java.function.Function2;
 import scala.Tuple2;
 
 import java.io.*;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 
 public class PairedAlignment extends AlignmentBase
-    implements Function2<Integer, Iterator<Tuple2<String, String>>, Iterator<String>> {
+    implements Function2<Integer, Iterator<Tuple2<FASTQRecord, FASTQRecord>>, Iterator<String>> {
 
   public PairedAlignment(SparkContext context, BaseAligner aligner, File originInputFile) {
     super(context, aligner, originInputFile);
   }
 
-  public Iterator<String> call(Integer arg0, Iterator<Tuple2<String, String>> arg1) throws Exception {
+  public Iterator<String> call(Integer arg0, Iterator<Tuple2<FASTQRecord, FASTQRecord>> input) throws Exception {
+    Iterator<String> completedResults = this.completedResults(arg0);
+    if (completedResults != null) {
+      return completedResults;
+    }
+
+    PartitionMetrics metrics = this.startPartition(arg0, true);
+    Iterator<Tuple2<FASTQRecord, FASTQRecord>> arg1 = metrics.timeFetch(input);
+
+    if (this.isInProcess()) {
+      return this.runInProcessAlignment(arg0, true, interleave(arg1));
+    }
+
+    if (this.isStreaming(true)) {
+      LOG.info("SparkAligner:: Streaming partition " + arg0 + " to the aligner");
+
+      // The mates are interleaved, one record after the other.
+      return this.runStreamingAlignmentProcess(arg0, true, alignerInput -> {
+        long writeStart = System.nanoTime();
+        PartitionWriter.writePairs(arg1, alignerInput, null, Long.MAX_VALUE, metrics::countRead);
+        metrics.finishWrite(writeStart);
+      });
+    }
+
+    if (this.isChunked(true)) {
+      return this.runChunkedAlignmentProcess(arg0, true, (chunkFileName1, chunkFileName2, maxReads) -> {
+        try (OutputStream bos1 = new BufferedOutputStream(new FileOutputStream(chunkFileName1));
+             OutputStream bos2 = new BufferedOutputStream(new FileOutputStream(chunkFileName2))) {
+          return PartitionWriter.writePairs(arg1, bos1, bos2, maxReads, metrics::countRead);
+        }
+      });
+    }
 
     LOG.info("SparkAligner:: Tmp dir: " + this.tmpDir);
     String originInputFileName = MiscUtils.removeExtenstion(this.originInputFile.getName());
@@ -31,32 +62,24 @@ public class PairedAlignment extends AlignmentBase
     FileOutputStream fos1;
     FileOutputStream fos2;
 
-    BufferedWriter bw1;
-    BufferedWriter bw2;
+    BufferedOutputStream bos1;
+    BufferedOutputStream bos2;
 
-    ArrayList<String> returnedValues = new ArrayList<String>();
+    Iterator<String> returnedValues = Collections.emptyIterator();
 
     try {
       fos1 = new FileOutputStream(FastqFile1);
       fos2 = new FileOutputStream(FastqFile2);
 
-      bw1 = new BufferedWriter(new OutputStreamWriter(fos1));
-      bw2 = new BufferedWriter(new OutputStreamWriter(fos2));
-
-      Tuple2<String, String> newFastqRead;
-
-      while (arg1.hasNext()) {
-        newFastqRead = arg1.next();
-
-        bw1.write(newFastqRead._1);
-        bw1.newLine();
+      bos1 = new BufferedOutputStream(fos1);
+      bos2 = new BufferedOutputStream(fos2);
 
-        bw2.write(newFastqRead._2);
-        bw2.newLine();
-      }
+      long writeStart = System.nanoTime();
+      PartitionWriter.writePairs(arg1, bos1, bos2, Long.MAX_VALUE, metrics::countRead);
 
-      bw1.close();
-      bw2.close();
+      bos1.close();
+      bos2.close();
+      metrics.finishWrite(writeStart);
 
       returnedValues = this.runAlignmentProcess(arg0, fastqFileName1, fastqFileName2);
 
@@ -73,6 +96,6 @@ public class PairedAlignment extends AlignmentBase
       LOG.error(e.toString());
     }
 
-    return returnedValues.iterator();
+    return returnedValues;
   }
 }
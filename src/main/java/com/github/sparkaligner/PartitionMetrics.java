@@ -0,0 +1,135 @@
+package com.github.sparkaligner;
+
+import java.io.Serializable;
+import java.util.Iterator;
+
+/**
+ * Timers and counters of the alignment of one partition. Fetching covers reading the reads from the
+ * previous stage, which loads or shuffles them, and writing covers the temporary files or the aligner stdin.
+ */
+class PartitionMetrics implements Serializable {
+
+    private final String input;
+    private final int partition;
+    private final boolean streaming;
+
+    private long reads = 0;
+    private long bases = 0;
+    private long bytesWritten = 0;
+    private long fetchNanos = 0;
+    private long writeNanos = 0;
+    private long indexNanos = 0;
+    private long alignNanos = 0;
+    private long processNanos = 0;
+    private long copyNanos = 0;
+    private long bytesCopied = 0;
+
+    PartitionMetrics(String input, int partition, boolean streaming) {
+        this.input = input;
+        this.partition = partition;
+        this.streaming = streaming;
+    }
+
+    // Counts the time spent waiting for the reads of the partition.
+    <T> Iterator<T> timeFetch(Iterator<T> records) {
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                long start = System.nanoTime();
+                boolean hasNext = records.hasNext();
+                fetchNanos += System.nanoTime() - start;
+                return hasNext;
+            }
+
+            @Override
+            public T next() {
+                long start = System.nanoTime();
+                T next = records.next();
+                fetchNanos += System.nanoTime() - start;
+                return next;
+            }
+        };
+    }
+
+    void countRead(FASTQRecord record) {
+        this.reads++;
+        this.bases += record.getSequence().length;
+        // "@name\nsequence\n+\nquality\n"
+        this.bytesWritten += record.getName().length + record.getSequence().length + record.getQuality().length + 6;
+    }
+
+    // The time since writeStart, except what was spent fetching the reads.
+    void finishWrite(long writeStart) {
+        this.writeNanos = System.nanoTime() - writeStart - this.fetchNanos;
+    }
+
+    synchronized void addIndexNanos(long nanos) {
+        this.indexNanos += nanos;
+    }
+
+    void addAlignNanos(long nanos) {
+        this.alignNanos += nanos;
+    }
+
+    // Processes can run side by side, so this can exceed the alignment time.
+    synchronized void addProcessNanos(long nanos) {
+        this.processNanos += nanos;
+    }
+
+    void addCopy(long nanos, long bytes) {
+        this.copyNanos += nanos;
+        this.bytesCopied += bytes;
+    }
+
+    String getInput() {
+        return this.input;
+    }
+
+    int getPartition() {
+        return this.partition;
+    }
+
+    boolean isStreaming() {
+        return this.streaming;
+    }
+
+    long getReads() {
+        return this.reads;
+    }
+
+    long getBases() {
+        return this.bases;
+    }
+
+    long getBytesWritten() {
+        return this.bytesWritten;
+    }
+
+    long getFetchNanos() {
+        return this.fetchNanos;
+    }
+
+    long getWriteNanos() {
+        return this.writeNanos;
+    }
+
+    long getIndexNanos() {
+        return this.indexNanos;
+    }
+
+    long getAlignNanos() {
+        return this.alignNanos;
+    }
+
+    long getProcessNanos() {
+        return this.processNanos;
+    }
+
+    long getCopyNanos() {
+        return this.copyNanos;
+    }
+
+    long getBytesCopied() {
+        return this.bytesCopied;
+    }
+}
@@ -0,0 +1,107 @@
+package com.github.sparkaligner;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.spark.api.java.JavaSparkContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decides how many partitions the reads of an input are split into when -partitions is not given.
+ */
+class PartitionPlanner {
+
+    private static final Log LOG = LogFactory.getLog(PartitionPlanner.class);
+
+    // Number of bytes read from the start of a file to estimate the size of its records
+    private static final int SAMPLE_BYTES = 1 << 16;
+
+    // Partitions of about readsPerPartition reads each. A file that fills at least one wave of tasks on its own
+    // is rounded up to whole waves, so its last wave does not leave slots idle. The files are aligned together in
+    // a single job, so a smaller file keeps its few partitions and shares the waves with the others instead of
+    // being split into one tiny partition per slot.
+    static int plan(JavaSparkContext ctx, String inputName, long numReads, long readsPerPartition) {
+        int taskCpus = Math.max(1, ctx.getConf().getInt("spark.task.cpus", 1));
+        int taskSlots = Math.max(1, ctx.defaultParallelism() / taskCpus);
+
+        long partitionsForReads = Math.max(1, (numReads + readsPerPartition - 1) / readsPerPartition);
+        long plannedPartitions = partitionsForReads;
+        if (partitionsForReads >= taskSlots) {
+            long waves = (partitionsForReads + taskSlots - 1) / taskSlots;
+            plannedPartitions = waves * taskSlots;
+        }
+        int numPartitions = (int) Math.min(Integer.MAX_VALUE, plannedPartitions);
+
+        LOG.info(String.format("SparkAligner:: %s: %d reads on %d task slots "
+                        + "(spark.task.cpus=%d), target %d reads per partition -> %d partitions of about %d reads",
+                inputName, numReads, taskSlots, taskCpus, readsPerPartition, numPartitions,
+                numReads / numPartitions));
+
+        return numPartitions;
+    }
+
+    // Estimates the number of reads in a FASTQ file from its size and the size of the records at its start. For
+    // compressed files the start is decompressed, which also accounts for the compression ratio.
+    static long estimateReads(JavaSparkContext ctx, File inputFastq) {
+        Path file = new Path(inputFastq.getPath());
+
+        try {
+            FileSystem fs = file.getFileSystem(ctx.hadoopConfiguration());
+            long fileSize = fs.getFileStatus(file).getLen();
+
+            byte[] sample = new byte[(int) Math.min(SAMPLE_BYTES, fileSize)];
+            try (FSDataInputStream in = fs.open(file)) {
+                in.readFully(0, sample);
+            }
+
+            CompressionCodec codec = new CompressionCodecFactory(ctx.hadoopConfiguration()).getCodec(file);
+            long lines = codec == null ? countLines(sample, sample.length) : countDecompressedLines(codec, sample);
+
+            if (lines < 4) {
+                return 1;
+            }
+            return fileSize * lines / 4 / sample.length;
+
+        } catch (IOException e) {
+            e.printStackTrace();
+            LOG.error(e.toString());
+            return 1;
+        }
+    }
+
+    private static long countLines(byte[] buffer, int length) {
+        long lines = 0;
+        for (int i = 0; i < length; i++) {
+            if (buffer[i] == '\n') {
+                lines++;
+            }
+        }
+        return lines;
+    }
+
+    // The sample usually ends in the middle of the compressed stream, so decompress as much of it as possible.
+    private static long countDecompressedLines(CompressionCodec codec, byte[] sample) throws IOException {
+        long lines = 0;
+        byte[] buffer = new byte[SAMPLE_BYTES];
+
+        try (InputStream in = codec.createInputStream(new ByteArrayInputStream(sample))) {
+            int bytesRead;
+            while ((bytesRead = in.read(buffer)) > 0) {
+                lines += countLines(buffer, bytesRead);
+            }
+        } catch (EOFException e) {
+            // End of the sample
+        }
+
+        return lines;
+    }
+}
@@ -0,0 +1,54 @@
+package com.github.sparkaligner;
+
+import scala.Tuple2;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+/**
+ * Writes the reads of a partition as FASTQ for the aligner, into its temporary files or its stdin. Every way
+ * PairedAlignment and SingleAlignment hand the reads to an aligner process goes through here, so the benchmarks
+ * measure the loop the tasks run.
+ */
+public final class PartitionWriter {
+
+    private PartitionWriter() {
+    }
+
+    // Writes at most maxPairs pairs, the first mates to out1 and the second to out2, or both mates to out1 one
+    // after the other when out2 is null. Every read written is given to countRead. Returns the pairs written.
+    public static long writePairs(Iterator<Tuple2<FASTQRecord, FASTQRecord>> pairs, OutputStream out1,
+                                  OutputStream out2, long maxPairs, Consumer<FASTQRecord> countRead)
+            throws IOException {
+        OutputStream mateOut2 = out2 != null ? out2 : out1;
+        long written = 0;
+
+        while (written < maxPairs && pairs.hasNext()) {
+            Tuple2<FASTQRecord, FASTQRecord> pair = pairs.next();
+
+            pair._1.writeTo(out1);
+            pair._2.writeTo(mateOut2);
+            countRead.accept(pair._1);
+            countRead.accept(pair._2);
+            written++;
+        }
+        return written;
+    }
+
+    // Writes at most maxReads reads to out, giving each to countRead. Returns the reads written.
+    public static long writeSingle(Iterator<FASTQRecord> reads, OutputStream out, long maxReads,
+                                   Consumer<FASTQRecord> countRead) throws IOException {
+        long written = 0;
+
+        while (written < maxReads && reads.hasNext()) {
+            FASTQRecord read = reads.next();
+
+            read.writeTo(out);
+            countRead.accept(read);
+            written++;
+        }
+        return written;
+    }
+}
@@ -0,0 +1,215 @@
+package com.github.sparkaligner;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.spark.SparkContext;
+import org.apache.spark.util.CollectionAccumulator;
+import org.apache.spark.util.LongAccumulator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Accumulators timing the stages of a run: loading the FASTQ records, and the fetching, writing, alignment
+ * and copying of every partition, and counting what the trimming removed. At the end of the run the driver writes
+ * them as a JSON report.
+ *
+ * They are updated as the partitions are computed, not by the final action. Failed task attempts are not counted,
+ * but a partition computed again, because its executor was lost or its cached blocks were evicted, is counted
+ * again, so the report can count more than was read.
+ */
+class PipelineMetrics implements Serializable {
+
+    private static final Log LOG = LogFactory.getLog(PipelineMetrics.class);
+
+    static final String REPORT_FILE = "sparkaligner-metrics.json";
+
+    private final LongAccumulator loadedReads;
+    private final LongAccumulator loadedBytes;
+    private final LongAccumulator parseNanos;
+    private final LongAccumulator trimmedReads;
+    private final LongAccumulator adapterReads;
+    private final LongAccumulator adapterBases;
+    private final LongAccumulator qualityReads;
+    private final LongAccumulator qualityBases;
+    private final LongAccumulator droppedReads;
+    private final LongAccumulator droppedPairs;
+    private final CollectionAccumulator<PartitionMetrics> partitions;
+
+    PipelineMetrics(SparkContext sc) {
+        this.loadedReads = sc.longAccumulator("SparkAligner: loaded reads");
+        this.loadedBytes = sc.longAccumulator("SparkAligner: loaded bytes");
+        this.parseNanos = sc.longAccumulator("SparkAligner: parse time (ns)");
+        this.trimmedReads = sc.longAccumulator("SparkAligner: trimmed reads");
+        this.adapterReads = sc.longAccumulator("SparkAligner: reads with an adapter");
+        this.adapterBases = sc.longAccumulator("SparkAligner: adapter bases");
+        this.qualityReads = sc.longAccumulator("SparkAligner: reads with a low quality tail");
+        this.qualityBases = sc.longAccumulator("SparkAligner: low quality bases");
+        this.droppedReads = sc.longAccumulator("SparkAligner: reads too short");
+        this.droppedPairs = sc.longAccumulator("SparkAligner: pairs dropped");
+        this.partitions = sc.collectionAccumulator("SparkAligner: partition metrics");
+    }
+
+    // Parses a record read by the input format, counting it and the time spent parsing it.
+    FASTQRecord parse(Text value) {
+        long start = System.nanoTime();
+        FASTQRecord record = FASTQRecord.fromText(value);
+        this.parseNanos.add(System.nanoTime() - start);
+        this.loadedReads.add(1);
+        this.loadedBytes.add(value.getLength());
+        return record;
+    }
+
+    // Counts a read through the trimming, with the bases its adapter and its low quality tail took.
+    void addTrimmedRead(int adapterBases, int qualityBases) {
+        this.trimmedReads.add(1);
+        if (adapterBases > 0) {
+            this.adapterReads.add(1);
+            this.adapterBases.add(adapterBases);
+        }
+        if (qualityBases > 0) {
+            this.qualityReads.add(1);
+            this.qualityBases.add(qualityBases);
+        }
+    }
+
+    // Counts the reads dropped as too short, and the pair they belong to if any.
+    void addDroppedReads(int reads, boolean pair) {
+        this.droppedReads.add(reads);
+        if (pair) {
+            this.droppedPairs.add(1);
+        }
+    }
+
+    void addPartition(PartitionMetrics partition) {
+        this.partitions.add(partition);
+    }
+
+    void writeReport(Path reportFile, Configuration conf, String appId, long wallNanos) {
+        List<PartitionMetrics> partitions = new ArrayList<>(this.partitions.value());
+        partitions.sort(Comparator.comparing(PartitionMetrics::getInput).thenComparing(PartitionMetrics::getPartition));
+
+        long reads = 0;
+        long bases = 0;
+        long bytesWritten = 0;
+        long fetchNanos = 0;
+        long writeNanos = 0;
+        long indexNanos = 0;
+        long alignNanos = 0;
+        long processNanos = 0;
+        long copyNanos = 0;
+        long bytesCopied = 0;
+
+        for (PartitionMetrics partition : partitions) {
+            reads += partition.getReads();
+            bases += partition.getBases();
+            bytesWritten += partition.getBytesWritten();
+            fetchNanos += partition.getFetchNanos();
+            writeNanos += partition.getWriteNanos();
+            indexNanos += partition.getIndexNanos();
+            alignNanos += partition.getAlignNanos();
+            processNanos += partition.getProcessNanos();
+            copyNanos += partition.getCopyNanos();
+            bytesCopied += partition.getBytesCopied();
+        }
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"appId\": \"").append(escape(appId)).append("\",\n");
+        json.append("  \"wallSeconds\": ").append(seconds(wallNanos)).append(",\n");
+        json.append("  \"total\": {\n");
+        json.append("    \"partitions\": ").append(partitions.size()).append(",\n");
+        json.append("    \"loadedReads\": ").append(this.loadedReads.value()).append(",\n");
+        json.append("    \"loadedBytes\": ").append(this.loadedBytes.value()).append(",\n");
+        json.append("    \"parseSeconds\": ").append(seconds(this.parseNanos.value())).append(",\n");
+        json.append("    \"reads\": ").append(reads).append(",\n");
+        json.append("    \"bases\": ").append(bases).append(",\n");
+        json.append("    \"bytesWritten\": ").append(bytesWritten).append(",\n");
+        json.append("    \"fetchSeconds\": ").append(seconds(fetchNanos)).append(",\n");
+        json.append("    \"writeSeconds\": ").append(seconds(writeNanos)).append(",\n");
+        json.append("    \"indexSeconds\": ").append(seconds(indexNanos)).append(",\n");
+        json.append("    \"alignSeconds\": ").append(seconds(alignNanos)).append(",\n");
+        json.append("    \"processSeconds\": ").append(seconds(processNanos)).append(",\n");
+        json.append("    \"copySeconds\": ").append(seconds(copyNanos)).append(",\n");
+        json.append("    \"bytesCopied\": ").append(bytesCopied).append(",\n");
+        // Over the whole run, as seen from the driver
+        json.append("    \"readsPerSecond\": ").append(perSecond(reads, wallNanos)).append(",\n");
+        json.append("    \"basesPerSecond\": ").append(perSecond(bases, wallNanos)).append("\n");
+        json.append("  },\n");
+        json.append("  \"trimming\": {\n");
+        json.append("    \"reads\": ").append(this.trimmedReads.value()).append(",\n");
+        json.append("    \"adapterReads\": ").append(this.adapterReads.value()).append(",\n");
+        json.append("    \"adapterBases\": ").append(this.adapterBases.value()).append(",\n");
+        json.append("    \"qualityReads\": ").append(this.qualityReads.value()).append(",\n");
+        json.append("    \"qualityBases\": ").append(this.qualityBases.value()).append(",\n");
+        json.append("    \"droppedReads\": ").append(this.droppedReads.value()).append(",\n");
+        json.append("    \"droppedPairs\": ").append(this.droppedPairs.value()).append("\n");
+        json.append("  },\n");
+        json.append("  \"partitions\": [");
+
+        for (int i = 0; i < partitions.size(); i++) {
+            PartitionMetrics partition = partitions.get(i);
+
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("    {\"input\": \"").append(escape(partition.getInput()))
+                    .append("\", \"partition\": ").append(partition.getPartition())
+                    .append(", \"streaming\": ").append(partition.isStreaming())
+                    .append(", \"reads\": ").append(partition.getReads())
+                    .append(", \"bases\": ").append(partition.getBases())
+                    .append(", \"bytesWritten\": ").append(partition.getBytesWritten())
+                    .append(", \"fetchSeconds\": ").append(seconds(partition.getFetchNanos()))
+                    .append(", \"writeSeconds\": ").append(seconds(partition.getWriteNanos()))
+                    .append(", \"indexSeconds\": ").append(seconds(partition.getIndexNanos()))
+                    .append(", \"alignSeconds\": ").append(seconds(partition.getAlignNanos()))
+                    .append(", \"processSeconds\": ").append(seconds(partition.getProcessNanos()))
+                    .append(", \"copySeconds\": ").append(seconds(partition.getCopyNanos()))
+                    .append(", \"bytesCopied\": ").append(partition.getBytesCopied())
+                    // Over the alignment of the partition
+                    .append(", \"readsPerSecond\": ").append(perSecond(partition.getReads(), partition.getAlignNanos()))
+                    .append(", \"basesPerSecond\": ").append(perSecond(partition.getBases(), partition.getAlignNanos()))
+                    .append("}");
+        }
+        json.append(partitions.isEmpty() ? "]\n" : "\n  ]\n");
+        json.append("}\n");
+
+        try (OutputStream out = ResultsOutput.getFileSystem(reportFile, conf).create(reportFile, true)) {
+            out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+            LOG.info("SparkAligner:: Wrote the run metrics to " + reportFile);
+        } catch (IOException e) {
+            e.printStackTrace();
+            LOG.error(e.toString());
+        }
+    }
+
+    // The characters a JSON string can not hold as they are
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder();
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < 0x20) {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e9);
+    }
+
+    private static String perSecond(long count, long nanos) {
+        return nanos <= 0 ? "0" : String.format(Locale.ROOT, "%.1f", count / (nanos / 1e9));
+    }
+}
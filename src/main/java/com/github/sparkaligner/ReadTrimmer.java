@@ -0,0 +1,139 @@
+package com.github.sparkaligner;
+
+import org.apache.spark.api.java.JavaRDD;
+import scala.Tuple2;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Trims the reads before they are aligned, in the partitions they are aligned in, so they are read once instead
+ * of by a trimming tool first. A read is cut at the first match of an adapter, then at its first window of bases
+ * with a low mean quality, and dropped if it is then shorter than -minLength. A pair is dropped if either mate is,
+ * as the aligners expect every read of a mate file to have its mate.
+ *
+ * Adapters are matched like cutadapt does by default: the whole adapter inside the read, or a prefix of it of at
+ * least three bases at its end, with up to one mismatch every ten bases. An N in the read matches any base.
+ *
+ * What is trimmed and dropped is counted as the reads are trimmed, so reads trimmed again when their partition is
+ * computed again are counted again, as described in PipelineMetrics.
+ */
+class ReadTrimmer implements Serializable {
+
+    private static final int MIN_OVERLAP = 3;
+    private static final double MAX_ERROR_RATE = 0.1;
+    private static final int PHRED_OFFSET = 33;
+
+    private final List<byte[]> adapters = new ArrayList<>();
+    private final int minQuality;
+    private final int window;
+    private final int minLength;
+    private final PipelineMetrics metrics;
+
+    ReadTrimmer(AlignerOptions options, PipelineMetrics metrics) {
+        for (String adapter : options.getTrimAdapters()) {
+            if (!adapter.isEmpty()) {
+                this.adapters.add(adapter.toUpperCase().getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+        this.minQuality = options.getTrimQuality();
+        this.window = options.getTrimWindow();
+        // A read trimmed to nothing can not be aligned
+        this.minLength = Math.max(options.getMinLength(), 1);
+        this.metrics = metrics;
+    }
+
+    JavaRDD<FASTQRecord> trimSingle(JavaRDD<FASTQRecord> reads) {
+        return reads
+                .map(this::trim)
+                .filter(read -> {
+                    if (read.getSequence().length < this.minLength) {
+                        this.metrics.addDroppedReads(1, false);
+                        return false;
+                    }
+                    return true;
+                });
+    }
+
+    // Keeps the partitions of the pairs, so the mates stay zipped together
+    JavaRDD<Tuple2<FASTQRecord, FASTQRecord>> trimPaired(JavaRDD<Tuple2<FASTQRecord, FASTQRecord>> pairs) {
+        return pairs
+                .map(pair -> new Tuple2<>(this.trim(pair._1), this.trim(pair._2)))
+                .filter(pair -> {
+                    int tooShort = (pair._1.getSequence().length < this.minLength ? 1 : 0)
+                            + (pair._2.getSequence().length < this.minLength ? 1 : 0);
+                    if (tooShort > 0) {
+                        this.metrics.addDroppedReads(tooShort, true);
+                        return false;
+                    }
+                    return true;
+                });
+    }
+
+    FASTQRecord trim(FASTQRecord read) {
+        int length = read.getSequence().length;
+        int adapterStart = this.adapterStart(read.getSequence());
+        int qualityEnd = this.qualityEnd(read.getQuality(), adapterStart);
+
+        this.metrics.addTrimmedRead(length - adapterStart, adapterStart - qualityEnd);
+        return read.truncate(qualityEnd);
+    }
+
+    // Where the earliest match of an adapter starts, or the length of the read if none matches
+    int adapterStart(byte[] sequence) {
+        int start = sequence.length;
+
+        for (byte[] adapter : this.adapters) {
+            for (int i = 0; i < start && i + MIN_OVERLAP <= sequence.length; i++) {
+                int overlap = Math.min(adapter.length, sequence.length - i);
+                int maxMismatches = (int) (overlap * MAX_ERROR_RATE);
+
+                int mismatches = 0;
+                for (int j = 0; j < overlap && mismatches <= maxMismatches; j++) {
+                    byte base = sequence[i + j];
+                    if (base != 'N' && base != 'n' && Character.toUpperCase(base) != adapter[j]) {
+                        mismatches++;
+                    }
+                }
+
+                if (mismatches <= maxMismatches) {
+                    start = i;
+                    break;
+                }
+            }
+        }
+        return start;
+    }
+
+    // Where the first window whose mean quality is below -trimQuality starts, moved past the bases of the
+    // window that are good enough on their own. The first length bases are looked at.
+    int qualityEnd(byte[] quality, int length) {
+        if (this.minQuality <= 0 || length == 0) {
+            return length;
+        }
+
+        int window = Math.min(this.window, length);
+        int minSum = (this.minQuality + PHRED_OFFSET) * window;
+        int sum = 0;
+        for (int i = 0; i < window; i++) {
+            sum += quality[i];
+        }
+
+        for (int start = 0; start + window <= length; start++) {
+            if (start > 0) {
+                sum += quality[start + window - 1] - quality[start - 1];
+            }
+
+            if (sum < minSum) {
+                int end = start;
+                while (end < length && quality[end] >= this.minQuality + PHRED_OFFSET) {
+                    end++;
+                }
+                return end;
+            }
+        }
+        return length;
+    }
+}
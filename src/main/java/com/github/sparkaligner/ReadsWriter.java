@@ -0,0 +1,12 @@
+package com.github.sparkaligner;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes FASTQ reads into the input stream of a running aligner process.
+ */
+public interface ReadsWriter {
+
+    void write(OutputStream alignerInput) throws IOException;
+}
@@ -0,0 +1,139 @@
+package com.github.sparkaligner;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.spark.SparkEnv;
+import org.apache.spark.TaskContext;
+import org.apache.spark.deploy.SparkHadoopUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Writes results into the output folder through the Hadoop FileSystem API, so the output can be on any
+ * filesystem Hadoop supports (file://, hdfs://, ...). A task attempt writes into _temporary/<attempt> and then
+ * commits by renaming the file into place. The first attempt to commit wins, and the files of failed or
+ * speculative attempts are deleted, so the output never holds duplicate or partial files.
+ */
+class ResultsOutput {
+
+    private static final Log LOG = LogFactory.getLog(ResultsOutput.class);
+
+    static final String TEMPORARY_DIR = "_temporary";
+
+    // The folder given with -O, or sparkbwa-out-<app id> in the input folder. A resumed run has to find the
+    // results of the earlier runs, so it uses sparkbwa-out instead.
+    static String outputDir(AlignerOptions options, File inputFolder, String appId) {
+        if (!options.getOutputPath().isEmpty()) {
+            return options.getOutputPath();
+        }
+        String name = options.isResume() ? "sparkbwa-out" : "sparkbwa-out-" + appId;
+        return new File(inputFolder.getAbsoluteFile(), name).toURI().toString();
+    }
+
+    // The folder of the alignments against the reference being aligned against. With several references each has
+    // a folder named after it in the output folder.
+    static String referenceOutputDir(AlignerOptions options, File inputFolder, String appId) {
+        String outputDir = outputDir(options, inputFolder, appId);
+        if (options.getIndexPaths().size() < 2) {
+            return outputDir;
+        }
+        return new Path(outputDir, IndexProvisioner.sourcePath(options.getIndexPath()).getName()).toString();
+    }
+
+    // The Hadoop configuration of the executor, including the spark.hadoop.* settings.
+    static Configuration taskConfiguration() {
+        SparkEnv env = SparkEnv.get();
+        if (env == null) {
+            return new Configuration();
+        }
+        return SparkHadoopUtil.get().newConfiguration(env.conf());
+    }
+
+    // The checksummed local filesystem keeps a .crc file next to every file, which a rename would leave behind.
+    static FileSystem getFileSystem(Path path, Configuration conf) throws IOException {
+        FileSystem fs = path.getFileSystem(conf);
+        if (fs instanceof LocalFileSystem) {
+            return ((LocalFileSystem) fs).getRaw();
+        }
+        return fs;
+    }
+
+    // Where the current task attempt writes a result before committing it.
+    static Path attemptPath(Path outputDir, String name) {
+        TaskContext task = TaskContext.get();
+        String attempt = task == null
+                ? "driver"
+                : task.stageId() + "-" + task.partitionId() + "-" + task.attemptNumber();
+
+        return new Path(new Path(new Path(outputDir, TEMPORARY_DIR), attempt), name);
+    }
+
+    // Moves a file from the local disk of the task into the output folder and deletes it. A local output folder
+    // gets the file by a move, which does not copy it when both are on the same filesystem, any other is
+    // streamed the file.
+    static Path commitLocalFile(Path outputDir, File localFile, String name) throws IOException {
+        FileSystem fs = getFileSystem(outputDir, taskConfiguration());
+        Path attemptFile = attemptPath(outputDir, name);
+
+        if (fs instanceof RawLocalFileSystem) {
+            File attemptLocalFile = ((RawLocalFileSystem) fs).pathToFile(attemptFile);
+            attemptLocalFile.getParentFile().mkdirs();
+            Files.move(localFile.toPath(), attemptLocalFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            fs.copyFromLocalFile(true, true, new Path(localFile.toURI()), attemptFile);
+        }
+
+        return commit(fs, attemptFile, new Path(outputDir, name));
+    }
+
+    // Renames the file of a task attempt to its final name, unless another attempt committed it already.
+    static Path commit(FileSystem fs, Path attemptFile, Path outputFile) throws IOException {
+        boolean committed;
+
+        if (fs instanceof RawLocalFileSystem) {
+            // A local rename replaces an existing file, while linking fails atomically if the file exists
+            File source = ((RawLocalFileSystem) fs).pathToFile(attemptFile);
+            File target = ((RawLocalFileSystem) fs).pathToFile(outputFile);
+            target.getParentFile().mkdirs();
+            try {
+                Files.createLink(target.toPath(), source.toPath());
+                committed = true;
+            } catch (FileAlreadyExistsException e) {
+                committed = false;
+            }
+            Files.delete(source.toPath());
+
+        } else {
+            // Fails if the file exists
+            fs.mkdirs(outputFile.getParent());
+            committed = fs.rename(attemptFile, outputFile);
+            if (!committed) {
+                fs.delete(attemptFile, false);
+            }
+        }
+
+        if (!committed) {
+            LOG.warn("SparkAligner:: " + outputFile + " was committed by another task attempt, discarding " + attemptFile);
+        }
+        return outputFile;
+    }
+
+    // Deletes what failed task attempts left behind, once the job is over.
+    static void cleanup(Path outputDir, Configuration conf) {
+        try {
+            getFileSystem(outputDir, conf).delete(new Path(outputDir, TEMPORARY_DIR), true);
+        } catch (IOException e) {
+            e.printStackTrace();
+            LOG.error(e.toString());
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.github.sparkaligner;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Records which partitions of a run have committed output, so a resumed run only aligns the others. The
+ * _manifest folder of the output holds the partition count of every input, which a resumed run must reuse
+ * to split the reads the same way, and a "crc32 size" entry for every committed output file.
+ */
+class ResumeManifest {
+
+    private static final Log LOG = LogFactory.getLog(ResumeManifest.class);
+
+    static final String MANIFEST_DIR = "_manifest";
+
+    private static Path entryPath(Path outputDir, String name) {
+        return new Path(new Path(outputDir, MANIFEST_DIR), name);
+    }
+
+    // The name of an input in the output folder. The inputs found in the subfolders of the input folder all have
+    // their results in the folder given with -O, so their path from the input folder tells apart the inputs with
+    // the same name. Without -O the results go next to their input.
+    static String inputName(AlignerOptions options, File inputFile) {
+        if (options.getOutputPath().isEmpty()) {
+            return inputFile.getName();
+        }
+        return new File(options.getInputPath()).getAbsoluteFile().toURI()
+                .relativize(inputFile.getAbsoluteFile().toURI()).getPath();
+    }
+
+    // The partition count of an earlier run on the input, or the given one when there was none, which is
+    // recorded for the runs that resume this one.
+    static int resolvePartitions(Path outputDir, String inputName, int numPartitions, Configuration conf)
+            throws IOException {
+        FileSystem fs = ResultsOutput.getFileSystem(outputDir, conf);
+        Path entry = entryPath(outputDir, inputName + ".partitions");
+
+        if (fs.exists(entry)) {
+            int recordedPartitions = Integer.parseInt(readEntry(fs, entry));
+            if (recordedPartitions != numPartitions) {
+                LOG.warn("SparkAligner:: Resuming " + inputName + " with the " + recordedPartitions
+                        + " partitions of the earlier run, instead of " + numPartitions);
+            }
+            return recordedPartitions;
+        }
+
+        writeEntry(fs, outputDir, inputName + ".partitions", String.valueOf(numPartitions));
+        return numPartitions;
+    }
+
+    static long checksum(InputStream in) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[1 << 16];
+        int bytesRead;
+        while ((bytesRead = in.read(buffer)) > 0) {
+            crc.update(buffer, 0, bytesRead);
+        }
+        return crc.getValue();
+    }
+
+    static long checksum(File localFile) throws IOException {
+        try (InputStream in = new FileInputStream(localFile)) {
+            return checksum(in);
+        }
+    }
+
+    // Called once the output file is committed.
+    static void recordCompleted(Path outputDir, String name, long checksum, long size) throws IOException {
+        FileSystem fs = ResultsOutput.getFileSystem(outputDir, ResultsOutput.taskConfiguration());
+        writeEntry(fs, outputDir, name, checksum + " " + size);
+    }
+
+    // True if the output file was recorded as completed, and still has the size and checksum it was recorded with.
+    static boolean isCompleted(Path outputDir, String name) throws IOException {
+        FileSystem fs = ResultsOutput.getFileSystem(outputDir, ResultsOutput.taskConfiguration());
+        Path entry = entryPath(outputDir, name);
+        Path outputFile = new Path(outputDir, name);
+
+        if (!fs.exists(entry) || !fs.exists(outputFile)) {
+            return false;
+        }
+
+        String[] fields = readEntry(fs, entry).split(" ");
+        if (fs.getFileStatus(outputFile).getLen() != Long.parseLong(fields[1])) {
+            return false;
+        }
+
+        try (FSDataInputStream in = fs.open(outputFile)) {
+            return checksum(in) == Long.parseLong(fields[0]);
+        }
+    }
+
+    private static String readEntry(FileSystem fs, Path entry) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(entry), StandardCharsets.UTF_8))) {
+            return reader.readLine().trim();
+        }
+    }
+
+    // Entries are committed like the results, so an entry is never seen half written.
+    private static void writeEntry(FileSystem fs, Path outputDir, String name, String value) throws IOException {
+        Path attemptFile = ResultsOutput.attemptPath(outputDir, MANIFEST_DIR + "-" + name);
+        try (OutputStream out = fs.create(attemptFile, true)) {
+            out.write((value + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        ResultsOutput.commit(fs, attemptFile, entryPath(outputDir, name));
+    }
+}
@@ -4,17 +4,46 @@ import org.apache.spark.SparkContext;
 import org.apache.spark.api.java.function.Function2;
 
 import java.io.*;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
 
 public class SingleAlignment extends AlignmentBase
-    implements Function2<Integer, Iterator<String>, Iterator<String>> {
+    implements Function2<Integer, Iterator<FASTQRecord>, Iterator<String>> {
 
   public SingleAlignment(SparkContext context, BaseAligner aligner, File originInputFile) {
     super(context, aligner, originInputFile);
   }
 
-  public Iterator<String> call(Integer arg0, Iterator<String> arg1) throws Exception {
+  public Iterator<String> call(Integer arg0, Iterator<FASTQRecord> input) throws Exception {
+    Iterator<String> completedResults = this.completedResults(arg0);
+    if (completedResults != null) {
+      return completedResults;
+    }
+
+    PartitionMetrics metrics = this.startPartition(arg0, false);
+    Iterator<FASTQRecord> arg1 = metrics.timeFetch(input);
+
+    if (this.isInProcess()) {
+      return this.runInProcessAlignment(arg0, false, arg1);
+    }
+
+    if (this.isStreaming(false)) {
+      LOG.info("SparkAligner:: Streaming partition " + arg0 + " to the aligner");
+
+      return this.runStreamingAlignmentProcess(arg0, false, alignerInput -> {
+        long writeStart = System.nanoTime();
+        PartitionWriter.writeSingle(arg1, alignerInput, Long.MAX_VALUE, metrics::countRead);
+        metrics.finishWrite(writeStart);
+      });
+    }
+
+    if (this.isChunked(false)) {
+      return this.runChunkedAlignmentProcess(arg0, false, (chunkFileName1, chunkFileName2, maxReads) -> {
+        try (OutputStream bos1 = new BufferedOutputStream(new FileOutputStream(chunkFileName1))) {
+          return PartitionWriter.writeSingle(arg1, bos1, maxReads, metrics::countRead);
+        }
+      });
+    }
 
     LOG.info("SparkAligner:: Tmp dir: " + this.tmpDir);
     String originInputFileName = MiscUtils.removeExtenstion(this.originInputFile.getName());
@@ -24,24 +53,19 @@ public class SingleAlignment extends AlignmentBase
 
     File FastqFile1 = new File(fastqFileName1);
     FileOutputStream fos1;
-    BufferedWriter bw1;
+    BufferedOutputStream bos1;
 
-    ArrayList<String> returnedValues = new ArrayList<String>();
+    Iterator<String> returnedValues = Collections.emptyIterator();
 
     try {
       fos1 = new FileOutputStream(FastqFile1);
-      bw1 = new BufferedWriter(new OutputStreamWriter(fos1));
-
-      String newFastqRead;
-
-      while (arg1.hasNext()) {
-        newFastqRead = arg1.next();
+      bos1 = new BufferedOutputStream(fos1);
 
-        bw1.write(newFastqRead);
-        bw1.newLine();
-      }
+      long writeStart = System.nanoTime();
+      PartitionWriter.writeSingle(arg1, bos1, Long.MAX_VALUE, metrics::countRead);
 
-      bw1.close();
+      bos1.close();
+      metrics.finishWrite(writeStart);
 
       returnedValues = this.runAlignmentProcess(arg0, fastqFileName1, null);
       // Delete the temporary file, as is have now been copied to the
@@ -54,6 +78,6 @@ public class SingleAlignment extends AlignmentBase
       LOG.error(e.toString());
     }
 
-    return returnedValues.iterator();
+    return returnedValues;
   }
 }
@@ -1,6 +1,7 @@
 package com.github.sparkaligner;
 
 import com.github.sparkaligner.aligners.bwa.Bwa;
+import com.github.sparkaligner.aligners.bwa.BwaJni;
 
 import java.util.Arrays;
 
@@ -20,6 +21,9 @@ public class SparkAligner {
       case "bwa":
         aligner = new Bwa(argsNoAlignerName);
         break;
+      case "bwa-jni":
+        aligner = new BwaJni(argsNoAlignerName);
+        break;
     }
 
     if (aligner != null) {
@@ -0,0 +1,21 @@
+package com.github.sparkaligner;
+
+import com.esotericsoftware.kryo.Kryo;
+import org.apache.spark.SparkEnv;
+import org.apache.spark.serializer.KryoRegistrator;
+
+/**
+ * Registers the classes SparkAligner moves between stages with Kryo.
+ * The 2-bit packing of bases can be turned off with spark.sparkaligner.kryo.packBases=false.
+ */
+public class SparkAlignerKryoRegistrator implements KryoRegistrator {
+
+    @Override
+    public void registerClasses(Kryo kryo) {
+        boolean packBases = SparkEnv.get() == null
+                || SparkEnv.get().conf().getBoolean("spark.sparkaligner.kryo.packBases", true);
+
+        kryo.register(FASTQRecord.class, new FASTQRecordSerializer(packBases));
+        kryo.register(FASTQRecord[].class);
+    }
+}
@@ -0,0 +1,14 @@
+package com.github.sparkaligner;
+
+/**
+ * An aligner process that can read the reads of a partition from its stdin, so they are not written to disk
+ * first. Used with -stream.
+ */
+public interface StreamingAligner {
+
+    // Whether the reads can be streamed for this run, as some algorithms only read files.
+    boolean supportsStreaming(boolean isPairedReads);
+
+    // The mates of paired reads are written one after the other. Throws if the aligner fails.
+    void alignReadsStreaming(boolean isPairedReads, ReadsWriter reads);
+}
@@ -1,12 +1,27 @@
 package com.github.sparkaligner.aligners.bwa;
 
 import com.github.sparkaligner.BaseAligner;
+import com.github.sparkaligner.FileAligner;
+import com.github.sparkaligner.MiscUtils;
+import com.github.sparkaligner.ReadsWriter;
+import com.github.sparkaligner.StreamingAligner;
 import org.apache.spark.api.java.JavaSparkContext;
 
 import java.io.File;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
-public class Bwa extends BaseAligner implements Serializable {
+public class Bwa extends BaseAligner implements FileAligner, StreamingAligner, Serializable {
+
+  // bwa mem reports every batch it aligns, as in "[M::mem_process_seqs] Processed 10000 reads in 8.1 CPU sec, ..."
+  private static final Pattern PROCESSED_READS = Pattern.compile("^\\[M::\\w+\\] Processed (\\d+) reads");
 
   public Bwa(String args[]) {
     super("bwa", new BwaOptions(args));
@@ -15,6 +30,7 @@ public class Bwa extends BaseAligner implements Serializable {
     super(sparkContext, "bwa", new BwaOptions(args));
   }
 
+  @Override
   public void alignReads(String fastqFileName1, String fastqFileName2) {
     boolean isPairedReads = true;
 
@@ -22,17 +38,30 @@ public class Bwa extends BaseAligner implements Serializable {
       isPairedReads = false;
     }
 
-    this.execute(0, fastqFileName1, fastqFileName2);
     BwaOptions bwaSpecificOptions = (BwaOptions) options;
+    if (bwaSpecificOptions.useSharedIndex()) {
+      long stageStart = System.nanoTime();
+      BwaSharedIndex.stage(options.getIndexPath());
+      this.addIndexLoadTime(System.nanoTime() - stageStart);
+    }
 
-    // In case of the ALN algorithm, more executions of BWA are needed
-    if (bwaSpecificOptions.isAlnAlgorithm()) {
-
-      this.execute(1, fastqFileName1, fastqFileName2);
+    if (!bwaSpecificOptions.isAlnAlgorithm()) {
+      checkReturnCode(this.execute(0, fastqFileName1, fastqFileName2));
+      return;
+    }
 
+    // In case of the ALN algorithm, every read file is aligned by "aln" before "samse"/"sampe" creates the SAM output
+    try {
       if (isPairedReads) {
-        this.execute(2, fastqFileName1, fastqFileName2);
+        checkReturnCode(this.alignMates(fastqFileName1, fastqFileName2));
+      } else {
+        checkReturnCode(this.execute(0, fastqFileName1, null));
+      }
 
+      checkReturnCode(this.execute(2, fastqFileName1, fastqFileName2));
+
+    } finally {
+      if (isPairedReads) {
         File tmpSaiFile2 = new File(fastqFileName2 + ".sai");
         tmpSaiFile2.delete();
       }
@@ -41,4 +70,74 @@ public class Bwa extends BaseAligner implements Serializable {
       tmpSaiFile1.delete();
     }
   }
+
+  // A failed bwa leaves a truncated SAM file, so the task fails before the file is copied to the results
+  private static void checkReturnCode(int returnCode) {
+    if (returnCode != 0) {
+      throw new IllegalStateException("bwa exited with error code " + returnCode);
+    }
+  }
+
+  // The aln steps of the two mates are independent, so when the task has at least two CPUs they run side
+  // by side, each one using half of them.
+  private int alignMates(String fastqFileName1, String fastqFileName2) {
+    BwaOptions bwaSpecificOptions = (BwaOptions) options;
+    int taskCpus = MiscUtils.getTaskCpus();
+
+    if (taskCpus < 2) {
+      int returnCode = this.execute(0, fastqFileName1, fastqFileName2);
+      return returnCode != 0 ? returnCode : this.execute(1, fastqFileName1, fastqFileName2);
+    }
+
+    int threadsPerMate = taskCpus / 2;
+    ExecutorService mateExecutor = Executors.newSingleThreadExecutor();
+
+    try {
+      Future<Integer> mate2 = mateExecutor.submit(() -> this.execute(
+          bwaSpecificOptions.generateParameters(1, fastqFileName1, fastqFileName2, threadsPerMate), null));
+      int mate1 = this.execute(
+          bwaSpecificOptions.generateParameters(0, fastqFileName1, fastqFileName2, threadsPerMate), null);
+
+      int mate2ReturnCode = mate2.get();
+      return mate1 != 0 ? mate1 : mate2ReturnCode;
+
+    } catch (InterruptedException | ExecutionException e) {
+      e.printStackTrace();
+      return -1;
+    } finally {
+      mateExecutor.shutdown();
+    }
+  }
+
+  @Override
+  public List<String> getSamHeaderLines() {
+    return ((BwaOptions) options).getSamHeaderLines();
+  }
+
+  @Override
+  protected long parseProcessedReads(String errorLine) {
+    Matcher matcher = PROCESSED_READS.matcher(errorLine);
+    return matcher.find() ? Long.parseLong(matcher.group(1)) : 0;
+  }
+
+  @Override
+  public boolean supportsStreaming(boolean isPairedReads) {
+    BwaOptions bwaSpecificOptions = (BwaOptions) options;
+
+    // ALN needs the reads on disk again for samse/sampe, and only mem reads interleaved pairs
+    return bwaSpecificOptions.isMemAlgorithm() || (bwaSpecificOptions.isBwaswAlgorithm() && !isPairedReads);
+  }
+
+  @Override
+  public void alignReadsStreaming(boolean isPairedReads, ReadsWriter reads) {
+    BwaOptions bwaSpecificOptions = (BwaOptions) options;
+    if (bwaSpecificOptions.useSharedIndex()) {
+      long stageStart = System.nanoTime();
+      BwaSharedIndex.stage(options.getIndexPath());
+      this.addIndexLoadTime(System.nanoTime() - stageStart);
+    }
+
+    ArrayList<String> parameters = bwaSpecificOptions.generateStreamingParameters(isPairedReads);
+    checkReturnCode(this.execute(parameters, reads));
+  }
 }
@@ -0,0 +1,180 @@
+package com.github.sparkaligner.aligners.bwa;
+
+import com.github.sparkaligner.BaseAligner;
+import com.github.sparkaligner.FASTQRecord;
+import com.github.sparkaligner.InProcessAligner;
+import com.github.sparkaligner.MiscUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.spark.api.java.JavaSparkContext;
+
+import java.io.File;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Runs bwa mem inside the executor JVM through libbwajni.so, built from the bwa submodule by lib/Makefile. The
+ * reads of a partition are aligned in batches straight from memory, so no process is started and no FASTQ file
+ * is written. The index is loaded once per executor and shared by all its tasks, and with -sharedIndex it is
+ * mapped from the copy "bwa shm" keeps in shared memory. Once the tasks move on to another reference, the previous
+ * index is freed when its last batch is aligned, so only one index at a time stays loaded with repeated -R.
+ */
+public class BwaJni extends BaseAligner implements InProcessAligner, Serializable {
+
+  private static final Log LOG = LogFactory.getLog(BwaJni.class);
+
+  private static final String LIBRARY = "libbwajni.so";
+  private static final String[] INDEX_EXTENSIONS = {".amb", ".ann", ".bwt", ".pac", ".sa"};
+
+  private static boolean libraryLoaded = false;
+  private static final Map<String, Long> indices = new HashMap<>();
+  // The batches being aligned against each index, and the indices to free once none is
+  private static final Map<Long, Integer> activeBatches = new HashMap<>();
+  private static final Set<Long> replacedIndices = new HashSet<>();
+
+  // Reads this task aligned so far, which bwa seeds its choice between equally good hits with
+  private transient long alignedReads = 0;
+
+  public BwaJni(String args[]) {
+    super("bwa-jni", new BwaOptions(args));
+    this.checkOptions();
+  }
+
+  public BwaJni(JavaSparkContext sparkContext, String args[]) {
+    super(sparkContext, "bwa-jni", new BwaOptions(args));
+    this.checkOptions();
+  }
+
+  private void checkOptions() {
+    if (!((BwaOptions) options).isMemAlgorithm()) {
+      LOG.warn("SparkAligner:: bwa-jni only runs the mem algorithm, ignoring -algorithm");
+    }
+    if (((BwaOptions) options).hasBwaArgs()) {
+      LOG.warn("SparkAligner:: bwa-jni aligns with the default options of bwa mem, ignoring -bwaArgs");
+    }
+  }
+
+  private static native long loadIndex(String prefix);
+
+  private static native void freeIndex(long index);
+
+  private static native String header(long index);
+
+  private static native String[] align(long index, String[] names, String[] sequences, String[] qualities,
+                                       boolean paired, int threads, long processed);
+
+  // Loads the library and the index the first time a task of this executor needs them, and replaces the index of
+  // the previous reference. The index is in use until releaseIndex is called.
+  private long acquireIndex() {
+    synchronized (BwaJni.class) {
+      long index = this.getIndex();
+      activeBatches.merge(index, 1, Integer::sum);
+      return index;
+    }
+  }
+
+  private static void releaseIndex(long index) {
+    synchronized (BwaJni.class) {
+      if (activeBatches.merge(index, -1, Integer::sum) == 0) {
+        activeBatches.remove(index);
+        if (replacedIndices.remove(index)) {
+          freeIndex(index);
+        }
+      }
+    }
+  }
+
+  private long getIndex() {
+    synchronized (BwaJni.class) {
+      String indexPath = options.getIndexPath();
+      Long index = indices.get(indexPath);
+      if (index != null) {
+        return index;
+      }
+
+      // The tasks of the previous reference may still be aligning their last batches against its index
+      for (Long replaced : indices.values()) {
+        if (activeBatches.containsKey(replaced)) {
+          replacedIndices.add(replaced);
+        } else {
+          freeIndex(replaced);
+        }
+      }
+      indices.clear();
+
+      long loadStart = System.nanoTime();
+      if (!libraryLoaded) {
+        System.load(MiscUtils.findExecutable(LIBRARY));
+        libraryLoaded = true;
+      }
+
+      if (((BwaOptions) options).useSharedIndex()) {
+        BwaSharedIndex.stage(indexPath);
+      }
+
+      // bwa exits the process when it can not read the index, which would take the executor with it
+      for (String extension : INDEX_EXTENSIONS) {
+        if (!new File(indexPath + extension).isFile()) {
+          throw new IllegalStateException("The index file " + indexPath + extension + " does not exist");
+        }
+      }
+
+      LOG.info("SparkAligner:: Loading " + indexPath + " into the executor");
+      index = loadIndex(indexPath);
+      if (index == 0) {
+        throw new IllegalStateException("bwa could not load the index " + indexPath);
+      }
+
+      indices.put(indexPath, index);
+      this.addIndexLoadTime(System.nanoTime() - loadStart);
+      return index;
+    }
+  }
+
+  @Override
+  public String getSamHeader() {
+    long index = this.acquireIndex();
+    try {
+      return header(index) + String.join("\n", this.getSamHeaderLines()) + "\n";
+    } finally {
+      releaseIndex(index);
+    }
+  }
+
+  // The default options of bwa mem, as -bwaArgs is ignored
+  @Override
+  public List<String> getSamHeaderLines() {
+    return Collections.singletonList("@PG\tID:bwa\tPN:bwa\tCL:bwa mem");
+  }
+
+  @Override
+  public String[] alignBatch(List<FASTQRecord> reads, boolean isPairedReads) {
+    String[] names = new String[reads.size()];
+    String[] sequences = new String[reads.size()];
+    String[] qualities = new String[reads.size()];
+    for (int i = 0; i < reads.size(); i++) {
+      FASTQRecord read = reads.get(i);
+      names[i] = read.getSamName();
+      sequences[i] = new String(read.getSequence(), StandardCharsets.US_ASCII);
+      qualities[i] = new String(read.getQuality(), StandardCharsets.US_ASCII);
+    }
+
+    String[] records;
+    long index = this.acquireIndex();
+    try {
+      records = align(index, names, sequences, qualities, isPairedReads, MiscUtils.getTaskCpus(), this.alignedReads);
+    } finally {
+      releaseIndex(index);
+    }
+
+    this.alignedReads += reads.size();
+    this.addProcessedReads(reads.size());
+    return records;
+  }
+}
@@ -1,10 +1,12 @@
 package com.github.sparkaligner.aligners.bwa;
 
 import com.github.sparkaligner.AlignerOptions;
+import com.github.sparkaligner.MiscUtils;
 import org.apache.commons.cli.*;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 public class BwaOptions extends AlignerOptions {
 
@@ -13,6 +15,7 @@ public class BwaOptions extends AlignerOptions {
   }
 
   private Algorithm algorithm = Algorithm.MEM;
+  private boolean sharedIndex = false;
 
   private String correctUse = "sparkaligner";
 
@@ -41,13 +44,52 @@ public class BwaOptions extends AlignerOptions {
     }
 
     if (cmd.hasOption("R")) {
-      setIndexPath(cmd.getOptionValue("R"));
+      // -R can be repeated, or list the indices separated by commas
+      ArrayList<String> indexPaths = new ArrayList<>();
+      for (String indexPath : cmd.getOptionValues("R")) {
+        indexPaths.addAll(Arrays.asList(indexPath.split(",")));
+      }
+      setIndexPaths(indexPaths);
     }
 
     if (cmd.hasOption("partitions")) {
       setPartitionNumber(Integer.parseInt(cmd.getOptionValue("partitions")));
     }
 
+    if (cmd.hasOption("readsPerPartition")) {
+      long readsPerPartition = Long.parseLong(cmd.getOptionValue("readsPerPartition"));
+      if (readsPerPartition > 0) {
+        setReadsPerPartition(readsPerPartition);
+      } else {
+        this.LOG.warn("A partition needs at least one read, ignoring -readsPerPartition\n");
+      }
+    }
+
+    if (cmd.hasOption("trimAdapter")) {
+      ArrayList<String> adapters = new ArrayList<>();
+      for (String adapter : cmd.getOptionValues("trimAdapter")) {
+        adapters.addAll(Arrays.asList(adapter.split(",")));
+      }
+      setTrimAdapters(adapters);
+    }
+
+    if (cmd.hasOption("trimQuality")) {
+      setTrimQuality(Integer.parseInt(cmd.getOptionValue("trimQuality")));
+    }
+
+    if (cmd.hasOption("trimWindow")) {
+      int trimWindow = Integer.parseInt(cmd.getOptionValue("trimWindow"));
+      if (trimWindow > 0) {
+        setTrimWindow(trimWindow);
+      } else {
+        this.LOG.warn("The quality window needs at least one base, ignoring -trimWindow\n");
+      }
+    }
+
+    if (cmd.hasOption("minLength")) {
+      setMinLength(Integer.parseInt(cmd.getOptionValue("minLength")));
+    }
+
     if (cmd.hasOption("bwaArgs")) {
       setAlignerExtraArgs(cmd.getOptionValue("bwaArgs"));
     }
@@ -56,6 +98,89 @@ public class BwaOptions extends AlignerOptions {
       setInputPath(cmd.getOptionValue("I"));
     }
 
+    if (cmd.hasOption("O")) {
+      setOutputPath(cmd.getOptionValue("O"));
+    }
+
+    if (cmd.hasOption("oneTaskPerExecutor")) {
+      setOneTaskPerExecutor(true);
+    }
+
+    if (cmd.hasOption("bam")) {
+      setBamOutput(true);
+    }
+
+    if (cmd.hasOption("mergeBam")) {
+      setBamOutput(true);
+      setMergeBam(true);
+    }
+
+    if (cmd.hasOption("collapseDuplicates")) {
+      if (isBamOutput()) {
+        setCollapseDuplicates(true);
+      } else {
+        this.LOG.warn("The alignments are only copied to the duplicate reads with -bam or -mergeBam, ignoring -collapseDuplicates\n");
+      }
+    }
+
+    if (cmd.hasOption("passUnmapped")) {
+      if (isBamOutput()) {
+        setPassUnmapped(true);
+      } else {
+        this.LOG.warn("The unmapped reads are only known with -bam or -mergeBam, ignoring -passUnmapped\n");
+      }
+    }
+
+    if (cmd.hasOption("resume")) {
+      if (isBamOutput()) {
+        this.LOG.warn("The BAM output is sorted from every alignment of the run, ignoring -resume\n");
+      } else {
+        setResume(true);
+      }
+    }
+
+    if (cmd.hasOption("watch")) {
+      if (isBamOutput()) {
+        this.LOG.warn("The BAM output is sorted from every alignment of the run, ignoring -watch\n");
+      } else {
+        setWatch(true);
+      }
+    }
+
+    if (cmd.hasOption("stream")) {
+      setStreaming(true);
+
+      if (isAlnAlgorithm()) {
+        this.LOG.warn("The aln algorithm needs the reads in files, ignoring -stream\n");
+      }
+    }
+
+    if (cmd.hasOption("localIndex")) {
+      setLocalIndex(true);
+    }
+
+    if (cmd.hasOption("sharedIndex")) {
+      sharedIndex = true;
+
+      if (!isMemAlgorithm()) {
+        this.LOG.warn("Only the mem algorithm can use an index in shared memory, ignoring -sharedIndex\n");
+      }
+    }
+
+    // Every chunk starts a new bwa process, which would load the index from disk again without shared memory
+    if (cmd.hasOption("chunkSize")) {
+      if (isMemAlgorithm()) {
+        setChunkSize(Long.parseLong(cmd.getOptionValue("chunkSize")));
+
+        if (!sharedIndex) {
+          this.LOG.warn("Chunks are aligned against the index in shared memory, enabling -sharedIndex\n");
+          sharedIndex = true;
+        }
+      } else {
+        this.LOG.warn("Only the mem algorithm can align chunks against an index in shared memory, ignoring -chunkSize\n");
+      }
+    }
+
   }
 
   public Options initOptions() {
@@ -76,7 +201,7 @@ public class BwaOptions extends AlignerOptions {
             "R",
             "reference",
              true,
-             "Prefix for the index created by bwa to use - setIndexPath(string)");
+             "Prefix for the index created by bwa to use, repeated or separated by commas to align against several - setIndexPaths(list)");
     index.setArgName("Index prefix");
     options.addOption(index);
 
@@ -87,6 +212,48 @@ public class BwaOptions extends AlignerOptions {
             "Number of partitions to divide input reads - setPartitionNumber(int)");
     options.addOption(partitions);
 
+    Option readsPerPartition =
+        new Option(
+            "readsPerPartition",
+            true,
+            "Target number of reads per partition when -partitions is not given - setReadsPerPartition(long)");
+    options.addOption(readsPerPartition);
+
+    Option chunkSize =
+        new Option(
+            "chunkSize",
+            true,
+            "Align each partition in chunks of this many reads, writing the next chunk while BWA aligns one, so the temporary files stay small. Turns on -sharedIndex (mem only) - setChunkSize(long)");
+    options.addOption(chunkSize);
+
+    Option trimAdapter =
+        new Option(
+            "trimAdapter",
+            true,
+            "Trim the reads from the first match of this adapter sequence, repeated or separated by commas for several - setTrimAdapters(list)");
+    options.addOption(trimAdapter);
+
+    Option trimQuality =
+        new Option(
+            "trimQuality",
+            true,
+            "Trim the reads from the first window of -trimWindow bases whose mean Phred quality is below this - setTrimQuality(int)");
+    options.addOption(trimQuality);
+
+    Option trimWindow =
+        new Option(
+            "trimWindow",
+            true,
+            "Size of the window of -trimQuality, 4 by default - setTrimWindow(int)");
+    options.addOption(trimWindow);
+
+    Option minLength =
+        new Option(
+            "minLength",
+            true,
+            "Drop the reads shorter than this after trimming, and both mates of a pair if either is - setMinLength(int)");
+    options.addOption(minLength);
+
     Option inputFolder =
             new Option(
                     "I",
@@ -96,10 +263,95 @@ public class BwaOptions extends AlignerOptions {
     partitions.setArgName("Input folder");
     options.addOption(inputFolder);
 
+    Option outputFolder =
+            new Option(
+                    "O",
+                    "output",
+                    true,
+                    "URI of the output folder (file://, hdfs://...), by default sparkbwa-out-<app id> next to the input");
+    outputFolder.setArgName("Output folder");
+    options.addOption(outputFolder);
+
+    Option oneTaskPerExecutor =
+        new Option(
+            "oneTaskPerExecutor",
+            false,
+            "Run a single BWA process per executor, with spark.task.cpus set to spark.executor.cores");
+    options.addOption(oneTaskPerExecutor);
+
+    Option stream =
+        new Option(
+            "stream",
+            false,
+            "Pipe the reads into the stdin of BWA instead of writing them to temporary files (mem and bwasw only)");
+    options.addOption(stream);
+
+    Option sharedIndex =
+        new Option(
+            "sharedIndex",
+            false,
+            "Load the index into shared memory once per executor with \"bwa shm\" (mem only)");
+    options.addOption(sharedIndex);
+
+    Option localIndex =
+        new Option(
+            "localIndex",
+            false,
+            "Copy the index given with -R, which can be any Hadoop URI, to the local disk of every node once, and align against the copy");
+    options.addOption(localIndex);
+
+    Option bam =
+        new Option(
+            "bam",
+            false,
+            "Write the alignments as coordinate-sorted BAM shards, sorted across the cluster, instead of one SAM file per partition");
+    options.addOption(bam);
+
+    Option mergeBam =
+        new Option(
+            "mergeBam",
+            false,
+            "Like -bam, and also concatenate the shards into a single indexed BAM file");
+    options.addOption(mergeBam);
+
+    Option passUnmapped =
+        new Option(
+            "passUnmapped",
+            false,
+            "With several -R, align only the reads (or pairs) left unmapped by a reference against the next one (with -bam)");
+    options.addOption(passUnmapped);
+
+    Option collapseDuplicates =
+        new Option(
+            "collapseDuplicates",
+            false,
+            "Align a single read of the reads (or pairs) with the same sequence, and copy its alignments to the others (with -bam)");
+    options.addOption(collapseDuplicates);
+
+    Option watch =
+        new Option(
+            "watch",
+            false,
+            "Keep aligning the FASTQ files written into the input folder as they are complete, until the done file (spark.sparkaligner.watch.doneFile, _DONE) is written");
+    options.addOption(watch);
+
+    Option resume =
+        new Option(
+            "resume",
+            false,
+            "Name the results after the input file and partition, and skip the partitions an earlier run with -resume completed");
+    options.addOption(resume);
+
     return options;
   }
 
   public ArrayList<String> generateParameters(int alnStep, String inputFile1, String inputFile2) {
+    // Use every CPU Spark reserved for the task, unless the BWA arguments set the threads
+    return this.generateParameters(alnStep, inputFile1, inputFile2, MiscUtils.getTaskCpus());
+  }
+
+  // numThreads > 0 adds "-t numThreads", unless the threads are already set in the BWA arguments
+  public ArrayList<String> generateParameters(int alnStep, String inputFile1, String inputFile2, int numThreads) {
     ArrayList<String> parameters = new ArrayList<>();
 
     String algorithm;
@@ -133,11 +385,20 @@ public class BwaOptions extends AlignerOptions {
 
     parameters.add(algorithm);
 
-    if (!this.getAlignerExtraArgs().isEmpty()) {
+    // samse and sampe do not accept the alignment arguments, such as -t
+    boolean isSamStep = algorithm.equals("sampe") || algorithm.equals("samse");
+
+    if (!this.getAlignerExtraArgs().isEmpty() && !isSamStep) {
       parameters.addAll(Arrays.asList(this.getAlignerExtraArgs().split(" ")));
     }
 
-    if (isAlnAlgorithm()) {
+    // A thread count in the extra arguments, as "-t 4" or "-t4", takes precedence
+    if (numThreads > 0 && !isSamStep && parameters.stream().noneMatch(parameter -> parameter.startsWith("-t"))) {
+      parameters.add("-t");
+      parameters.add(String.valueOf(numThreads));
+    }
+
+    if (algorithm.equals("aln")) {
       parameters.add("-f");
       if (alnStep == 0) {
         parameters.add(inputFile1 + ".sai");
@@ -155,7 +416,7 @@ public class BwaOptions extends AlignerOptions {
         parameters.add(inputFile2);
       }
     }
-    else if (isAlnAlgorithm()) {
+    else if (algorithm.equals("aln")) {
       if (alnStep == 0) {
         parameters.add(inputFile1);
       } else if (alnStep == 1 && isPaired) {
@@ -173,7 +434,8 @@ public class BwaOptions extends AlignerOptions {
       parameters.add(inputFile1);
     }
 
-    if (!isAlnAlgorithm()) {
+    // aln writes its .sai file with -f, every other step writes the SAM output
+    if (!algorithm.equals("aln")) {
       parameters.add(">");
       parameters.add(this.getOutputFile());
     }
@@ -181,6 +443,45 @@ public class BwaOptions extends AlignerOptions {
     return parameters;
   }
 
+  public ArrayList<String> generateStreamingParameters(boolean isPaired) {
+    // "-" makes bwa read the reads from stdin, and -p makes bwa mem read them as interleaved pairs
+    ArrayList<String> parameters = this.generateParameters(0, "-", null);
+
+    if (isPaired) {
+      parameters.add(1, "-p");
+    }
+
+    return parameters;
+  }
+
+  // The @RG line bwa writes to the header for -R in the BWA arguments, and the @PG line of bwa
+  public List<String> getSamHeaderLines() {
+    List<String> lines = new ArrayList<>();
+    String commandLine = "bwa " + algorithm.name().toLowerCase();
+
+    if (hasBwaArgs()) {
+      String[] args = this.getAlignerExtraArgs().split(" ");
+      for (int i = 0; i + 1 < args.length; i++) {
+        if (args[i].equals("-R")) {
+          // bwa takes the tabs of the line escaped as \t
+          lines.add(args[i + 1].replace("\\t", "\t"));
+        }
+      }
+      commandLine += " " + this.getAlignerExtraArgs();
+    }
+
+    lines.add("@PG\tID:bwa\tPN:bwa\tCL:" + commandLine);
+    return lines;
+  }
+
+  public boolean hasBwaArgs() {
+    return !this.getAlignerExtraArgs().isEmpty();
+  }
+
+  public boolean useSharedIndex() {
+    return sharedIndex && isMemAlgorithm();
+  }
+
   public boolean isMemAlgorithm() {
     return algorithm == Algorithm.MEM;
   }
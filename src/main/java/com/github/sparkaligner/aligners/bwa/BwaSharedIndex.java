@@ -0,0 +1,166 @@
+package com.github.sparkaligner.aligners.bwa;
+
+import com.github.sparkaligner.MiscUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps bwa indices in shared memory with "bwa shm". bwa mem looks for its index there before loading it
+ * from disk, so every partition aligned on the node maps the same copy instead of reloading it. An index is
+ * staged once per executor. The shared memory belongs to the node, so the executors using it and the indices
+ * they staged are recorded next to the lock file, and the last executor to exit releases it.
+ */
+class BwaSharedIndex {
+
+  private static final Log LOG = LogFactory.getLog(BwaSharedIndex.class);
+
+  private static final File LOCK_FILE = new File(System.getProperty("java.io.tmpdir"), "sparkaligner-bwa-shm.lock");
+  private static final File USERS_FILE = new File(System.getProperty("java.io.tmpdir"), "sparkaligner-bwa-shm.users");
+  private static final File INDICES_FILE = new File(System.getProperty("java.io.tmpdir"), "sparkaligner-bwa-shm.indices");
+
+  private static final Set<String> stagedIndices = new HashSet<>();
+  private static boolean shutdownHookAdded = false;
+
+  static synchronized void stage(String indexPath) {
+    if (stagedIndices.contains(indexPath)) {
+      return;
+    }
+
+    // Executors on the same node share the shared memory, so they take turns staging
+    try (FileChannel lockChannel = FileChannel.open(LOCK_FILE.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+         FileLock lock = lockChannel.lock()) {
+
+      // bwa names the indices in shared memory after the basename of their path, and bwa mem looks there
+      // before loading its index from disk, so two indices with the same basename cannot be told apart
+      Map<String, String> indices = readIndices();
+      String name = new File(indexPath).getName();
+      String stagedPath = indices.get(name);
+
+      if (stagedPath != null && !stagedPath.equals(indexPath)) {
+        throw new IllegalStateException("SparkAligner:: " + indexPath + " has the same name as " + stagedPath
+            + ", which is already in shared memory on this node. Rename one of them or do not use -sharedIndex");
+      }
+
+      if (stagedPath == null) {
+        LOG.info("SparkAligner:: Staging " + indexPath + " in shared memory");
+
+        int returnCode = MiscUtils.executeResourceBinary("bwa", new ArrayList<>(Arrays.asList("shm", indexPath)));
+        if (returnCode == 0) {
+          indices.put(name, indexPath);
+          writeIndices(indices);
+        } else {
+          LOG.warn("SparkAligner:: Could not stage " + indexPath + " in shared memory, bwa will load it from disk");
+        }
+      }
+
+      if (!shutdownHookAdded) {
+        Set<String> users = readUsers();
+        users.add(processId());
+        writeUsers(users);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(BwaSharedIndex::release));
+        shutdownHookAdded = true;
+      }
+
+    } catch (IOException e) {
+      LOG.error("SparkAligner:: " + e.toString());
+    }
+
+    // Do not try again for every partition if staging failed
+    stagedIndices.add(indexPath);
+  }
+
+  /**
+   * Removes this executor from the users of the shared memory. bwa shm -d drops every staged index on the
+   * node, so it only runs once no other executor is left. Executors that were killed without running their
+   * shutdown hook are not counted.
+   */
+  private static void release() {
+    try (FileChannel lockChannel = FileChannel.open(LOCK_FILE.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+         FileLock lock = lockChannel.lock()) {
+
+      Set<String> users = readUsers();
+      users.remove(processId());
+      users.removeIf(pid -> !new File("/proc", pid).exists());
+
+      if (users.isEmpty()) {
+        MiscUtils.executeResourceBinary("bwa", new ArrayList<>(Arrays.asList("shm", "-d")));
+        writeIndices(new LinkedHashMap<>());
+      }
+
+      writeUsers(users);
+
+    } catch (IOException e) {
+      LOG.error("SparkAligner:: " + e.toString());
+    }
+  }
+
+  private static Set<String> readUsers() throws IOException {
+    Set<String> users = new LinkedHashSet<>();
+
+    if (USERS_FILE.exists()) {
+      for (String line : Files.readAllLines(USERS_FILE.toPath(), StandardCharsets.UTF_8)) {
+        if (!line.trim().isEmpty()) {
+          users.add(line.trim());
+        }
+      }
+    }
+
+    return users;
+  }
+
+  private static void writeUsers(Set<String> users) throws IOException {
+    Files.write(USERS_FILE.toPath(), users, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * The indices in shared memory on this node, by the name bwa gives them.
+   */
+  private static Map<String, String> readIndices() throws IOException {
+    Map<String, String> indices = new LinkedHashMap<>();
+
+    if (INDICES_FILE.exists()) {
+      for (String line : Files.readAllLines(INDICES_FILE.toPath(), StandardCharsets.UTF_8)) {
+        String[] fields = line.split("\t", 2);
+        if (fields.length == 2) {
+          indices.put(fields[0], fields[1]);
+        }
+      }
+    }
+
+    return indices;
+  }
+
+  private static void writeIndices(Map<String, String> indices) throws IOException {
+    List<String> lines = new ArrayList<>();
+    for (Map.Entry<String, String> index : indices.entrySet()) {
+      lines.add(index.getKey() + "\t" + index.getValue());
+    }
+
+    Files.write(INDICES_FILE.toPath(), lines, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * The pid of this executor, from the "pid@host" name of the running JVM.
+   */
+  private static String processId() {
+    return ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+  }
+}
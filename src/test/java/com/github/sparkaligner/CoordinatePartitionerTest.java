@@ -0,0 +1,95 @@
+package com.github.sparkaligner;
+
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CoordinatePartitionerTest {
+
+    private static JavaSparkContext ctx;
+
+    @BeforeClass
+    public static void startSpark() {
+        ctx = new JavaSparkContext(new SparkConf()
+                .setMaster("local[2]")
+                .setAppName("CoordinatePartitionerTest")
+                .set("spark.ui.enabled", "false"));
+    }
+
+    @AfterClass
+    public static void stopSpark() {
+        ctx.stop();
+    }
+
+    @Test
+    public void sortsByReferenceThenPositionWithUnplacedLast() {
+        long first = CoordinatePartitioner.coordinateKey(0, 1000, "a");
+        long second = CoordinatePartitioner.coordinateKey(1, 1, "b");
+        long unplaced = CoordinatePartitioner.coordinateKey(-1, 0, "c");
+
+        assertTrue(first < second);
+        assertTrue(second < unplaced);
+        assertTrue(unplaced >= CoordinatePartitioner.UNPLACED);
+    }
+
+    @Test
+    public void mapsKeysToTheirRange() {
+        long[] bounds = {
+                CoordinatePartitioner.coordinateKey(0, 100, null),
+                CoordinatePartitioner.coordinateKey(1, 50, null)};
+        CoordinatePartitioner partitioner = new CoordinatePartitioner(bounds, 2);
+
+        assertEquals(5, partitioner.numPartitions());
+        assertEquals(0, partitioner.getPartition(CoordinatePartitioner.coordinateKey(0, 1, null)));
+        // A bound belongs to the partition it ends
+        assertEquals(0, partitioner.getPartition(CoordinatePartitioner.coordinateKey(0, 100, null)));
+        assertEquals(1, partitioner.getPartition(CoordinatePartitioner.coordinateKey(0, 101, null)));
+        assertEquals(1, partitioner.getPartition(CoordinatePartitioner.coordinateKey(1, 50, null)));
+        assertEquals(2, partitioner.getPartition(CoordinatePartitioner.coordinateKey(5, 1, null)));
+    }
+
+    @Test
+    public void keepsUnplacedMatesTogetherInTheTrailingPartitions() {
+        CoordinatePartitioner partitioner = new CoordinatePartitioner(new long[]{100}, 3);
+
+        for (int i = 0; i < 100; i++) {
+            int partition = partitioner.getPartition(CoordinatePartitioner.coordinateKey(-1, 0, "read" + i));
+            assertTrue(partition >= 2 && partition < 5);
+            assertEquals(partition, partitioner.getPartition(CoordinatePartitioner.coordinateKey(-1, 0, "read" + i)));
+        }
+    }
+
+    @Test
+    public void balancesPartitionsOfSkewedCoverage() {
+        // Most reads fall on a small stretch of the first reference, and a tenth of them are unplaced
+        List<Long> keys = new ArrayList<>();
+        for (int i = 0; i < 90000; i++) {
+            int position = i % 10 == 0 ? i * 100 : 5000 + i % 1000;
+            keys.add(CoordinatePartitioner.coordinateKey(0, position, null));
+        }
+        for (int i = 0; i < 10000; i++) {
+            keys.add(CoordinatePartitioner.coordinateKey(-1, 0, "read" + i));
+        }
+
+        CoordinatePartitioner partitioner = CoordinatePartitioner.fromSample(ctx.parallelize(keys, 4), 10);
+        assertEquals(10, partitioner.numPartitions());
+
+        long[] sizes = new long[partitioner.numPartitions()];
+        for (long key : keys) {
+            sizes[partitioner.getPartition(key)]++;
+        }
+        // Every partition within a factor of two of an even share
+        for (long size : sizes) {
+            assertTrue("Partition sizes " + Arrays.toString(sizes), size > 5000 && size < 20000);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.github.sparkaligner;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class DuplicateCollapserTest {
+
+    private static final FASTQRecord READ = new FASTQRecord("copy/1 comment".getBytes(StandardCharsets.US_ASCII),
+            "ACGTA".getBytes(StandardCharsets.US_ASCII), "ABCDE".getBytes(StandardCharsets.US_ASCII));
+
+    private static String alignment(int flag, String cigar, String quality) {
+        return "representative\t" + flag + "\tchr1\t100\t60\t" + cigar + "\t*\t0\t0\tACGTA\t" + quality + "\tNM:i:0";
+    }
+
+    @Test
+    public void copiesNameAndQualities() {
+        assertEquals("copy\t0\tchr1\t100\t60\t5M\t*\t0\t0\tACGTA\tABCDE\tNM:i:0",
+                DuplicateCollapser.copyAlignment(alignment(0, "5M", "FFFFF"), READ));
+    }
+
+    @Test
+    public void reversesQualitiesOnReverseStrand() {
+        assertEquals("copy\t16\tchr1\t100\t60\t5M\t*\t0\t0\tACGTA\tEDCBA\tNM:i:0",
+                DuplicateCollapser.copyAlignment(alignment(16, "5M", "FFFFF"), READ));
+    }
+
+    @Test
+    public void leavesOutHardClippedQualities() {
+        assertEquals("copy\t2048\tchr1\t100\t60\t2H3M\t*\t0\t0\tACGTA\tCDE\tNM:i:0",
+                DuplicateCollapser.copyAlignment(alignment(2048, "2H3M", "FFF"), READ));
+        // Clipped from the reversed qualities on the reverse strand
+        assertEquals("copy\t2064\tchr1\t100\t60\t1H3M1H\t*\t0\t0\tACGTA\tDCB\tNM:i:0",
+                DuplicateCollapser.copyAlignment(alignment(2064, "1H3M1H", "FFF"), READ));
+    }
+
+    @Test
+    public void keepsMissingQualities() {
+        assertEquals("copy\t256\tchr1\t100\t0\t5M\t*\t0\t0\t*\t*\tNM:i:0",
+                DuplicateCollapser.copyAlignment(
+                        "representative\t256\tchr1\t100\t0\t5M\t*\t0\t0\t*\t*\tNM:i:0", READ));
+    }
+}
@@ -0,0 +1,104 @@
+package com.github.sparkaligner;
+
+import htsjdk.samtools.util.BlockCompressedOutputStream;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class FASTQRecordReaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Configuration conf = new Configuration();
+
+    // Every other record has a quality line starting with '@', like a record header
+    private static List<String> records(int count) {
+        Random random = new Random(42);
+        List<String> records = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            StringBuilder sequence = new StringBuilder();
+            StringBuilder quality = new StringBuilder(i % 2 == 0 ? "@" : "I");
+            for (int j = 0; j < 100; j++) {
+                sequence.append("ACGT".charAt(random.nextInt(4)));
+                if (j > 0) {
+                    quality.append((char) ('#' + random.nextInt(40)));
+                }
+            }
+            records.add("@read" + i + "\n" + sequence + "\n+\n" + quality);
+        }
+        return records;
+    }
+
+    private static void write(OutputStream out, List<String> records) throws IOException {
+        for (String record : records) {
+            out.write((record + "\n").getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    private List<String> read(File file, long start, long length) throws IOException {
+        FASTQRecordReader reader = new FASTQRecordReader();
+        reader.initialize(new FileSplit(new Path(file.toURI()), start, length, null),
+                new TaskAttemptContextImpl(this.conf, new TaskAttemptID()));
+
+        List<String> records = new ArrayList<>();
+        while (reader.nextKeyValue()) {
+            records.add(reader.getCurrentValue().toString());
+        }
+        reader.close();
+        return records;
+    }
+
+    @Test
+    public void readsEveryRecordOnceWhateverTheSplit() throws IOException {
+        List<String> records = records(50);
+        File file = this.folder.newFile("reads.fastq");
+        try (OutputStream out = Files.newOutputStream(file.toPath())) {
+            write(out, records);
+        }
+
+        for (long boundary = 1; boundary < file.length(); boundary += 3) {
+            List<String> read = read(file, 0, boundary);
+            read.addAll(read(file, boundary, file.length() - boundary));
+            assertEquals("Split at " + boundary, records, read);
+        }
+    }
+
+    @Test
+    public void readsEveryRecordOnceFromBgzfSplits() throws IOException {
+        // Several BGZF blocks of 64 KB
+        List<String> records = records(3000);
+        File file = this.folder.newFile("reads.fastq.gz");
+        try (OutputStream out = new BlockCompressedOutputStream(file)) {
+            write(out, records);
+        }
+
+        for (int splits = 2; splits <= 9; splits++) {
+            List<String> read = new ArrayList<>();
+            long start = 0;
+            for (int i = 1; i <= splits; i++) {
+                long end = file.length() * i / splits;
+                read.addAll(read(file, start, end - start));
+                start = end;
+            }
+            assertEquals(splits + " splits", records, read);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.github.sparkaligner;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class FASTQRecordSerializerTest {
+
+    private static FASTQRecord record(String name, String sequence, String quality) {
+        return new FASTQRecord(name.getBytes(StandardCharsets.US_ASCII), sequence.getBytes(StandardCharsets.US_ASCII),
+                quality.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    // Packable, with an N, of a length that is not a multiple of four, and empty
+    private static final List<FASTQRecord> RECORDS = Arrays.asList(
+            record("read1 1:N:0", "ACGTACGTACGT", "IIIIIIIIIIII"),
+            record("read2", "ACGNTACGT", "II#IIIIII"),
+            record("read3", "ACGTA", "@@@@@"),
+            record("read4", "", ""));
+
+    private static void assertRoundTrip(boolean packBases) {
+        Kryo kryo = new Kryo();
+        FASTQRecordSerializer serializer = new FASTQRecordSerializer(packBases);
+
+        Output output = new Output(64, -1);
+        for (FASTQRecord record : RECORDS) {
+            serializer.write(kryo, output, record);
+        }
+
+        // Read back one after the other, so a record read with the wrong length shows in the ones after it
+        Input input = new Input(output.toBytes());
+        for (FASTQRecord record : RECORDS) {
+            FASTQRecord read = serializer.read(kryo, input, FASTQRecord.class);
+            assertArrayEquals(record.getName(), read.getName());
+            assertArrayEquals(record.getSequence(), read.getSequence());
+            assertArrayEquals(record.getQuality(), read.getQuality());
+        }
+    }
+
+    @Test
+    public void roundTripsPackedBases() {
+        assertRoundTrip(true);
+    }
+
+    @Test
+    public void roundTripsRawBases() {
+        assertRoundTrip(false);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsQualitiesOfAnotherLength() {
+        FASTQRecord.fromText(new Text("@read1\nACGT\n+\nII"));
+    }
+}
@@ -0,0 +1,104 @@
+package com.github.sparkaligner;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IndexProvisionerTest {
+
+    private static final String[] EXTENSIONS = {".amb", ".ann", ".bwt", ".pac", ".sa"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Configuration conf = new Configuration();
+
+    // The copies are remembered for the whole JVM, so every test uses indices of its own
+    private String writeIndex(String name) throws IOException {
+        File indexDir = this.folder.newFolder();
+        for (String extension : EXTENSIONS) {
+            Files.write(new File(indexDir, name + extension).toPath(),
+                    (name + extension).getBytes(StandardCharsets.UTF_8));
+        }
+        return new File(indexDir, name).getPath();
+    }
+
+    private static void assertCopied(String indexPath, String localPrefix) throws IOException {
+        for (String extension : EXTENSIONS) {
+            assertArrayEquals(Files.readAllBytes(new File(indexPath + extension).toPath()),
+                    Files.readAllBytes(new File(localPrefix + extension).toPath()));
+        }
+    }
+
+    @Test
+    public void copiesTheIndexOnce() throws IOException {
+        String indexPath = writeIndex("genome.fa");
+        File cacheRoot = this.folder.newFolder("cache");
+
+        String localPrefix = IndexProvisioner.provision(indexPath, this.conf, cacheRoot, 3);
+
+        assertNotEquals(indexPath, localPrefix);
+        assertTrue(localPrefix.startsWith(cacheRoot.getPath()));
+        assertEquals("genome.fa", new File(localPrefix).getName());
+        assertCopied(indexPath, localPrefix);
+        assertEquals(localPrefix, IndexProvisioner.provision(indexPath, this.conf, cacheRoot, 3));
+    }
+
+    @Test
+    public void copiesAgainOnceTheCopyIsGone() throws IOException {
+        String indexPath = writeIndex("gone.fa");
+        File cacheRoot = this.folder.newFolder("cache");
+
+        String localPrefix = IndexProvisioner.provision(indexPath, this.conf, cacheRoot, 3);
+        for (File file : new File(localPrefix).getParentFile().listFiles()) {
+            file.delete();
+        }
+
+        assertEquals(localPrefix, IndexProvisioner.provision(indexPath, this.conf, cacheRoot, 3));
+        assertCopied(indexPath, localPrefix);
+    }
+
+    @Test
+    public void rejectsACopyThatDoesNotMatchTheChecksums() throws IOException {
+        String indexPath = writeIndex("checked.fa");
+        Files.write(new File(indexPath + ".md5").toPath(),
+                "00000000000000000000000000000000  checked.fa.bwt\n".getBytes(StandardCharsets.UTF_8));
+
+        try {
+            IndexProvisioner.provision(indexPath, this.conf, this.folder.newFolder("cache"), 3);
+            fail("The copy of checked.fa.bwt does not have the MD5 of checked.fa.md5");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("checked.fa.bwt"));
+        }
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedCopies() throws IOException {
+        File cacheRoot = this.folder.newFolder("cache");
+
+        // A copy left by an executor that no longer runs
+        File oldCopy = new File(cacheRoot, "old.fa-0123456789abcdef");
+        oldCopy.mkdirs();
+        File oldManifest = new File(oldCopy, "index.md5");
+        Files.write(oldManifest.toPath(), new byte[0]);
+        oldManifest.setLastModified(System.currentTimeMillis() - 3600 * 1000);
+
+        String localPrefix = IndexProvisioner.provision(writeIndex("recent.fa"), this.conf, cacheRoot, 1);
+
+        assertFalse(oldCopy.exists());
+        assertTrue(new File(localPrefix + ".bwt").isFile());
+    }
+}
@@ -0,0 +1,105 @@
+package com.github.sparkaligner;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.spark.SparkConf;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class IndexedFASTQInputFormatTest {
+
+    // More than a checkpoint interval of FASTQSplitIndex, so the partitions start between checkpoints
+    private static final int NUM_RECORDS = 10000;
+
+    private static JavaSparkContext ctx;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @BeforeClass
+    public static void startSpark() {
+        ctx = new JavaSparkContext(new SparkConf()
+                .setMaster("local[2]")
+                .setAppName("IndexedFASTQInputFormatTest")
+                .set("spark.ui.enabled", "false"));
+        // Several splits per file while indexing
+        ctx.hadoopConfiguration().setLong("mapreduce.input.fileinputformat.split.maxsize", 100000);
+    }
+
+    @AfterClass
+    public static void stopSpark() {
+        ctx.stop();
+    }
+
+    // The mates get names and sequences of different lengths, so the files have different offsets
+    private File writeMates(String name, int mate) throws IOException {
+        File file = this.folder.newFile(name);
+        try (OutputStream out = Files.newOutputStream(file.toPath())) {
+            for (int i = 0; i < NUM_RECORDS; i++) {
+                int length = mate == 1 ? 50 + i % 7 : 100 + i % 13;
+                char[] sequence = new char[length];
+                char[] quality = new char[length];
+                Arrays.fill(sequence, 'A');
+                Arrays.fill(quality, 'I');
+
+                String record = "@pair" + i + "/" + mate + "\n" + new String(sequence) + "\n+\n"
+                        + new String(quality) + "\n";
+                out.write(record.getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+        return file;
+    }
+
+    // The names of the reads of every partition, without the mate suffix
+    private static List<List<String>> partitionNames(File file, FASTQSplitIndex index, int numPartitions) {
+        Configuration conf = new Configuration(ctx.hadoopConfiguration());
+        IndexedFASTQInputFormat.setInput(conf, file, index, numPartitions);
+
+        return ctx.newAPIHadoopRDD(conf, IndexedFASTQInputFormat.class, LongWritable.class, Text.class)
+                .map(record -> record._2().toString().split("\n", 2)[0].replaceFirst("/[12]$", ""))
+                .glom()
+                .collect();
+    }
+
+    @Test
+    public void splitsMateFilesIntoTheSamePairs() throws IOException {
+        File mates1 = writeMates("reads_1.fastq", 1);
+        File mates2 = writeMates("reads_2.fastq", 2);
+        List<FASTQSplitIndex> indices = FASTQSplitIndex.build(ctx, Arrays.asList(mates1, mates2));
+
+        assertEquals(NUM_RECORDS, indices.get(0).getNumRecords());
+        assertEquals(NUM_RECORDS, indices.get(1).getNumRecords());
+
+        for (int numPartitions : new int[]{1, 3, 7, 16}) {
+            List<List<String>> partitions1 = partitionNames(mates1, indices.get(0), numPartitions);
+            List<List<String>> partitions2 = partitionNames(mates2, indices.get(1), numPartitions);
+
+            assertEquals(numPartitions, partitions1.size());
+            assertEquals(numPartitions + " partitions", partitions1, partitions2);
+
+            // Every read once, in file order
+            List<String> names = new ArrayList<>();
+            partitions1.forEach(names::addAll);
+            assertEquals(NUM_RECORDS, names.size());
+            for (int i = 0; i < NUM_RECORDS; i++) {
+                assertEquals("@pair" + i, names.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.github.sparkaligner;
+
+import com.github.sparkaligner.aligners.bwa.BwaOptions;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+public class ReadTrimmerTest {
+
+    private static final String ADAPTER = "AGATCGGAAGAGC";
+
+    private static ReadTrimmer trimmer(String... args) {
+        return new ReadTrimmer(new BwaOptions(args), null);
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void findsWholeAdapter() {
+        ReadTrimmer trimmer = trimmer("-trimAdapter", ADAPTER);
+        assertEquals(10, trimmer.adapterStart(bytes("ACGTACGTAC" + ADAPTER + "TTT")));
+    }
+
+    @Test
+    public void findsAdapterWithMismatch() {
+        ReadTrimmer trimmer = trimmer("-trimAdapter", ADAPTER);
+        assertEquals(10, trimmer.adapterStart(bytes("ACGTACGTAC" + "AGATCGTAAGAGC")));
+    }
+
+    @Test
+    public void findsPartialAdapterAtEnd() {
+        ReadTrimmer trimmer = trimmer("-trimAdapter", ADAPTER);
+        assertEquals(10, trimmer.adapterStart(bytes("CCCCCCCCCCAGATC")));
+        // An N matches any base
+        assertEquals(10, trimmer.adapterStart(bytes("CCCCCCCCCCAGNTC")));
+    }
+
+    @Test
+    public void ignoresOverlapsShorterThanThreeBases() {
+        ReadTrimmer trimmer = trimmer("-trimAdapter", ADAPTER);
+        assertEquals(12, trimmer.adapterStart(bytes("CCCCCCCCCCAG")));
+    }
+
+    @Test
+    public void keepsReadWithoutAdapter() {
+        ReadTrimmer trimmer = trimmer("-trimAdapter", ADAPTER);
+        assertEquals(15, trimmer.adapterStart(bytes("CCCCCCCCCCCCCCC")));
+        assertEquals(15, trimmer().adapterStart(bytes("CCCCCCCCCCAGATC")));
+    }
+
+    @Test
+    public void takesEarliestOfSeveralAdapters() {
+        ReadTrimmer trimmer = trimmer("-trimAdapter", ADAPTER + ",TTTTTT");
+        assertEquals(5, trimmer.adapterStart(bytes("CCCCCTTTTTTCCCC" + ADAPTER)));
+    }
+
+    @Test
+    public void cutsAtFirstLowQualityWindow() {
+        ReadTrimmer trimmer = trimmer("-trimQuality", "20");
+        // 'I' is Q40 and '#' is Q2. The window starting at the sixth base is the first below Q20 on average, and
+        // its first base is kept as it is good enough on its own.
+        assertEquals(6, trimmer.qualityEnd(bytes("IIIIII####"), 10));
+    }
+
+    @Test
+    public void keepsGoodQualities() {
+        ReadTrimmer trimmer = trimmer("-trimQuality", "20");
+        assertEquals(10, trimmer.qualityEnd(bytes("IIIIIIIIII"), 10));
+        // Only the bases left by the adapter trimming are looked at
+        assertEquals(3, trimmer.qualityEnd(bytes("IIIIII####"), 3));
+    }
+
+    @Test
+    public void usesWindowSize() {
+        ReadTrimmer trimmer = trimmer("-trimQuality", "20", "-trimWindow", "1");
+        assertEquals(2, trimmer.qualityEnd(bytes("II#IIIIIII"), 10));
+    }
+
+    @Test
+    public void keepsQualitiesWithoutTrimQuality() {
+        assertEquals(10, trimmer().qualityEnd(bytes("##########"), 10));
+    }
+}
@@ -0,0 +1,89 @@
+package com.github.sparkaligner;
+
+import com.github.sparkaligner.aligners.bwa.BwaOptions;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ResultsOutputTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path writeAttempt(FileSystem fs, Path outputDir, String attempt, String content) throws IOException {
+        Path attemptFile = new Path(new Path(new Path(outputDir, ResultsOutput.TEMPORARY_DIR), attempt), "part.sam");
+        fs.mkdirs(attemptFile.getParent());
+        Files.write(new File(attemptFile.toUri()).toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return attemptFile;
+    }
+
+    private static String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(new File(file.toUri()).toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void keepsTheFirstCommittedAttempt() throws IOException {
+        Path outputDir = new Path(this.folder.getRoot().toURI());
+        FileSystem fs = ResultsOutput.getFileSystem(outputDir, new Configuration());
+        Path outputFile = new Path(outputDir, "part.sam");
+
+        Path firstAttempt = writeAttempt(fs, outputDir, "0-1-0", "first");
+        Path secondAttempt = writeAttempt(fs, outputDir, "0-1-1", "second");
+
+        assertEquals(outputFile, ResultsOutput.commit(fs, firstAttempt, outputFile));
+        // A speculative or retried attempt of the same partition does not replace it
+        assertEquals(outputFile, ResultsOutput.commit(fs, secondAttempt, outputFile));
+
+        assertEquals("first", read(outputFile));
+        assertFalse(fs.exists(firstAttempt));
+        assertFalse(fs.exists(secondAttempt));
+    }
+
+    @Test
+    public void movesTheLocalFileIntoTheOutputFolder() throws IOException {
+        File localFile = this.folder.newFile("local.sam");
+        Files.write(localFile.toPath(), "alignments".getBytes(StandardCharsets.UTF_8));
+        Path outputDir = new Path(new File(this.folder.getRoot(), "out").toURI());
+
+        Path outputFile = ResultsOutput.commitLocalFile(outputDir, localFile, "results.sam");
+
+        assertEquals("alignments", read(outputFile));
+        assertFalse(localFile.exists());
+
+        ResultsOutput.cleanup(outputDir, new Configuration());
+        assertTrue(new File(outputFile.toUri()).isFile());
+        assertFalse(new File(new File(outputDir.toUri()), ResultsOutput.TEMPORARY_DIR).exists());
+    }
+
+    @Test
+    public void writesEveryReferenceToAFolderOfItsOwn() {
+        BwaOptions options = new BwaOptions(new String[]{
+                "-R", "/refs/host.fa,/refs/pathogens.fa", "-R", "hdfs:///refs/spikes.fa", "-O", "/results"});
+        assertEquals(Arrays.asList("/refs/host.fa", "/refs/pathogens.fa", "hdfs:///refs/spikes.fa"),
+                options.getIndexPaths());
+
+        // The first reference is aligned against first
+        assertEquals("/results/host.fa", ResultsOutput.referenceOutputDir(options, new File("/input"), "app"));
+        options.setIndexPath("hdfs:///refs/spikes.fa");
+        assertEquals("/results/spikes.fa", ResultsOutput.referenceOutputDir(options, new File("/input"), "app"));
+    }
+
+    @Test
+    public void writesASingleReferenceToTheOutputFolder() {
+        BwaOptions options = new BwaOptions(new String[]{"-R", "/refs/host.fa", "-O", "/results"});
+        assertEquals("/results", ResultsOutput.referenceOutputDir(options, new File("/input"), "app"));
+    }
+}
@@ -0,0 +1,78 @@
+package com.github.sparkaligner;
+
+import com.github.sparkaligner.aligners.bwa.BwaOptions;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ResumeManifestTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File commit(Path outputDir, String name, String content) throws IOException {
+        File localFile = this.folder.newFile();
+        Files.write(localFile.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        long checksum = ResumeManifest.checksum(localFile);
+        long size = localFile.length();
+
+        Path outputFile = ResultsOutput.commitLocalFile(outputDir, localFile, name);
+        ResumeManifest.recordCompleted(outputDir, name, checksum, size);
+        return new File(outputFile.toUri());
+    }
+
+    @Test
+    public void reusesThePartitionCountOfTheEarlierRun() throws IOException {
+        Path outputDir = new Path(this.folder.newFolder("out").toURI());
+        Configuration conf = new Configuration();
+
+        assertEquals(8, ResumeManifest.resolvePartitions(outputDir, "reads.fastq", 8, conf));
+        // A resumed run planning differently still gets the partitions the results are named after
+        assertEquals(8, ResumeManifest.resolvePartitions(outputDir, "reads.fastq", 12, conf));
+        assertEquals(12, ResumeManifest.resolvePartitions(outputDir, "other.fastq", 12, conf));
+    }
+
+    @Test
+    public void skipsOnlyIntactCompletedPartitions() throws IOException {
+        Path outputDir = new Path(this.folder.newFolder("out").toURI());
+
+        commit(outputDir, "reads.fastq-part-00000.sam", "alignments 0\n");
+        File changed = commit(outputDir, "reads.fastq-part-00001.sam", "alignments 1\n");
+        File truncated = commit(outputDir, "reads.fastq-part-00002.sam", "alignments 2\n");
+
+        Files.write(changed.toPath(), "alignments X\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(truncated.toPath(), "align".getBytes(StandardCharsets.UTF_8));
+
+        assertTrue(ResumeManifest.isCompleted(outputDir, "reads.fastq-part-00000.sam"));
+        assertFalse(ResumeManifest.isCompleted(outputDir, "reads.fastq-part-00001.sam"));
+        assertFalse(ResumeManifest.isCompleted(outputDir, "reads.fastq-part-00002.sam"));
+        assertFalse(ResumeManifest.isCompleted(outputDir, "reads.fastq-part-00003.sam"));
+    }
+
+    @Test
+    public void namesInputsInSubfoldersByTheirPath() throws IOException {
+        File inputDir = this.folder.newFolder("input");
+        File first = new File(new File(inputDir, "a"), "reads.fastq");
+        File second = new File(new File(inputDir, "b"), "reads.fastq");
+
+        BwaOptions withoutOutput = new BwaOptions(new String[]{"-I", inputDir.getPath()});
+        assertEquals("reads.fastq", ResumeManifest.inputName(withoutOutput, first));
+
+        // Every input has its results in the folder given with -O
+        BwaOptions withOutput = new BwaOptions(new String[]{"-I", inputDir.getPath(), "-O", "/results"});
+        assertEquals("a/reads.fastq", ResumeManifest.inputName(withOutput, first));
+        assertNotEquals(ResumeManifest.inputName(withOutput, first), ResumeManifest.inputName(withOutput, second));
+    }
+}